@@ -0,0 +1,273 @@
+package bufmgr;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+import global.AbstractBufMgr;
+import global.PageId;
+
+/**
+ * This class implements the Adaptive Replacement Cache of Megiddo and Modha.
+ * Resident pages are split between T1, pages referenced once since they were
+ * read in, and T2, pages referenced again. The ghost lists B1 and B2 remember
+ * the page numbers recently evicted from T1 and T2. Reading in a page found in
+ * B1 means T1 was too small and raises the target size p of T1; a page found
+ * in B2 lowers it. The victim comes from T1 while T1 is larger than p, and
+ * from T2 otherwise, so the split between recency and frequency follows the
+ * workload.
+ *
+ * A pin on a frame that is already pinned is not counted as a new reference.
+ * pick_victim does not know the page being read in, so the tie-break of the
+ * original algorithm for a page found in B2 when T1 is exactly p is not
+ * applied, and p is adapted in load() right after the victim is chosen rather
+ * than right before.
+ */
+public class ARC extends BufMgrReplacer {
+
+	FrameList emptyList;
+	FrameList t1;
+	FrameList t2;
+	GhostList b1;
+	GhostList b2;
+	/** Target size of T1. */
+	int p = 0;
+	int numUnpinned;
+
+	public ARC() {
+	}
+
+	public ARC(AbstractBufMgr b) {
+		setBufferManager((BufMgr) b);
+	}
+
+	/**
+	 * Sets the buffer manager and puts every frame on the empty list.
+	 *
+	 * @param mgrArg
+	 *            the buffer manage to be assigned to.
+	 */
+	public void setBufferManager(BufMgr mgrArg) {
+		super.setBufferManager(mgrArg);
+		int numBuffers = mgr.getNumBuffers();
+		emptyList = new FrameList(numBuffers);
+		t1 = new FrameList(numBuffers);
+		t2 = new FrameList(numBuffers);
+		b1 = new GhostList(numBuffers);
+		b2 = new GhostList(numBuffers);
+		p = 0;
+		for (int i = 0; i < numBuffers; i++) {
+			emptyList.addLast(i);
+		}
+		numUnpinned = numBuffers;
+	}
+
+	/**
+	 * Moves the outgoing page to its ghost list, adapts p if the incoming
+	 * page is a ghost, and puts the frame in T1 or T2.
+	 *
+	 * @param frameNo
+	 *            frame number the page is read into.
+	 * @param pageId
+	 *            the page being brought in.
+	 */
+	public void load(int frameNo, PageId pageId) {
+		int c = mgr.getNumBuffers();
+		retire(frameNo);
+
+		int pid = pageId.pid;
+		if (b1.contains(pid)) {
+			p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+			b1.remove(pid);
+			t2.addLast(frameNo);
+		} else if (b2.contains(pid)) {
+			p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+			b2.remove(pid);
+			t2.addLast(frameNo);
+		} else {
+			t1.addLast(frameNo);
+		}
+
+		// keep |T1| + |B1| <= c and the whole directory within 2c
+		while (t1.size() + b1.size() > c && b1.size() > 0) {
+			b1.removeOldest();
+		}
+		while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c) {
+			if (b2.size() > 0) {
+				b2.removeOldest();
+			} else {
+				b1.removeOldest();
+			}
+		}
+
+		// the frame is pinned next; that pin is not a second reference
+		if (this.state_bit[frameNo] != Pinned) {
+			this.state_bit[frameNo] = Pinned;
+			numUnpinned--;
+		}
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"ARC::pin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] != Pinned) {
+			// a hit: the page has now been referenced at least twice
+			if (t1.remove(frameNo)) {
+				t2.addLast(frameNo);
+			} else {
+				t2.moveToLast(frameNo);
+			}
+			this.state_bit[frameNo] = Pinned;
+			numUnpinned--;
+		}
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"ARC::unpin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] == Pinned) {
+			this.state_bit[frameNo] = Referenced;
+			numUnpinned++;
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the page in a frame out of T1 or T2 and remembers it in B1 or B2.
+	 */
+	private void retire(int frameNo) {
+		BufMgrFrameDesc old = frameTable[frameNo];
+		if (t1.remove(frameNo)) {
+			if (old.isValid()) {
+				b1.add(old.getPid());
+			}
+		} else if (t2.remove(frameNo)) {
+			if (old.isValid()) {
+				b2.add(old.getPid());
+			}
+		} else {
+			emptyList.remove(frameNo);
+		}
+	}
+
+	/**
+	 * Remembers the evicted page in B1 or B2, as a replacement would, and
+	 * keeps the frame out of every list until it is loaded or freed. The
+	 * directory is trimmed by the next load.
+	 */
+	public void evict(int frameNo) {
+		retire(frameNo);
+		if (this.state_bit[frameNo] != Pinned) {
+			this.state_bit[frameNo] = Pinned;
+			numUnpinned--;
+		}
+	}
+
+	/**
+	 * Moves a page read ahead to the LRU end of T1, even if it was read in
+	 * from a ghost list, so that it is the next victim T1 gives up.
+	 */
+	public void demote(int frameNo) {
+		t2.remove(frameNo);
+		t1.moveToFirst(frameNo);
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		// the page is deallocated, so it does not become a ghost
+		t1.remove(frameNo);
+		t2.remove(frameNo);
+		emptyList.moveToFirst(frameNo);
+		if (this.state_bit[frameNo] == Pinned) {
+			numUnpinned++;
+		}
+		this.state_bit[frameNo] = Available;
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+
+		if (!emptyList.isEmpty()) {
+			return emptyList.first();
+		}
+
+		int victim;
+		if (t1.size() > 0 && t1.size() > p) {
+			victim = oldestUnpinned(t1);
+			if (victim == FrameList.NIL) {
+				victim = oldestUnpinned(t2);
+			}
+		} else {
+			victim = oldestUnpinned(t2);
+			if (victim == FrameList.NIL) {
+				victim = oldestUnpinned(t1);
+			}
+		}
+		if (victim == FrameList.NIL) {
+			throw new BufferPoolExceededException(null,
+					"ARC:pick_victim buffer pool exceeded");
+		}
+		return victim;
+	}
+
+	private int oldestUnpinned(FrameList list) {
+		int frameNo = list.first();
+		while (frameNo != FrameList.NIL && this.state_bit[frameNo] == Pinned) {
+			frameNo = list.next(frameNo);
+		}
+		return frameNo;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name() {
+		return "ARC";
+	}
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return numUnpinned;
+	}
+}
@@ -0,0 +1,102 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread that writes dirty, unpinned frames of a buffer manager to disk
+ * before the replacer gets to them, so that a miss seldom has to write its
+ * victim before reading. Every round it looks at the frames from the
+ * replacer's next victim on, and if more frames are dirty than the target,
+ * it cleans the first dirty unpinned ones, at most a fixed number per round,
+ * in page number order.
+ */
+class BackgroundWriter implements Runnable {
+
+	private final BufMgr mgr;
+	private final int dirtyTarget;
+	private final long intervalNanos;
+	/** Frames to clean in the current round, as (pid << 32) | frame. */
+	private final long[] batch;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition stopRequested = lock.newCondition();
+	private boolean stopping = false;
+	private final Thread thread;
+
+	/**
+	 * Creates a writer; it runs once start is called.
+	 *
+	 * @param dirtyTarget
+	 *            the number of dirty frames left alone.
+	 * @param maxWrites
+	 *            the most frames written in one round.
+	 * @param interval
+	 *            the time between rounds.
+	 */
+	BackgroundWriter(BufMgr mgr, int dirtyTarget, int maxWrites,
+			long interval, TimeUnit unit) {
+		if (dirtyTarget < 0 || maxWrites < 1 || interval <= 0) {
+			throw new IllegalArgumentException(
+					"BackgroundWriter: invalid target, rate or interval");
+		}
+		this.mgr = mgr;
+		this.dirtyTarget = dirtyTarget;
+		this.intervalNanos = unit.toNanos(interval);
+		this.batch = new long[maxWrites];
+		thread = new Thread(this, "BufMgr background writer");
+		thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops the writer and waits for the round in progress to end. The
+	 * writer is not interrupted, so no write is cut short.
+	 */
+	void stop() throws InterruptedException {
+		lock.lock();
+		try {
+			stopping = true;
+			stopRequested.signal();
+		} finally {
+			lock.unlock();
+		}
+		thread.join();
+	}
+
+	/** @return true once the writer is to stop. */
+	private boolean awaitNextRound() {
+		lock.lock();
+		try {
+			long nanos = intervalNanos;
+			while (!stopping && nanos > 0) {
+				nanos = stopRequested.awaitNanos(nanos);
+			}
+			return stopping;
+		} catch (InterruptedException e) {
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void run() {
+		while (!awaitNextRound()) {
+			int n = mgr.collectDirtyFrames(batch, dirtyTarget);
+			Arrays.sort(batch, 0, n);
+			for (int i = 0; i < n; i++) {
+				try {
+					mgr.cleanFrame((int) batch[i], (int) (batch[i] >>> 32));
+				} catch (Exception e) {
+					// the frame stays dirty; whoever evicts it will try
+					// again and report the error
+				}
+			}
+		}
+	}
+}
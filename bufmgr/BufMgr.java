@@ -10,6 +10,7 @@ import exceptions.HashEntryNotFoundException;
 import exceptions.HashOperationException;
 import exceptions.InvalidBufferException;
 import exceptions.InvalidFrameNumberException;
+import exceptions.InvalidPageNumberException;
 import exceptions.InvalidReplacerException;
 import exceptions.PageNotFoundException;
 import exceptions.PageNotReadException;
@@ -22,9 +23,14 @@ import global.PageId;
 import global.SystemDefs;
 
 import java.io.IOException;
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.Map;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 // *****************************************************
 
@@ -33,18 +39,140 @@ import java.util.Map;
  * buffer manager that reads from and writes to disk
  * 
  * algorithm to replace the page.
+ * 
+ * The buffer manager may be shared by several threads. The page table maps
+ * page numbers to frame numbers and is read without locking. Each frame's
+ * page number, pin count and dirty bit live in one state word changed by
+ * compare-and-set (see BufMgrFrameDesc), so pinning a page that is already
+ * pinned, and unpinning a page that stays pinned, take no lock and allocate
+ * nothing.
+ * Everything that changes which frames are replacement candidates (a pin
+ * count going to or from zero, a miss, freeing a page) and every call into the
+ * replacer is made under one pool lock. A page being read in is marked in its
+ * state word and the read is done after the pool lock is released; anyone
+ * else pinning the page waits for that read rather than starting another.
+ * 
+ * Pinning a page only keeps it in its frame. Threads that read and change the
+ * same page coordinate through the page's latch, taken in shared or
+ * exclusive mode by the pinPage and unpinPage variants that take a latch
+ * mode. A latch is only waited for after the page is pinned and outside the
+ * pool lock. Pages that are read far more often than they change can also be
+ * read without pinning or latching them at all, optimistically: see
+ * tryOptimisticRead.
+ * 
+ * The frames are byte arrays on the heap, or, for a buffer manager created
+ * off-heap, slices of page-aligned direct buffers of up to a gigabyte each,
+ * which the garbage collector never scans or moves. This only saves heap
+ * memory and copying for callers that pin pages with pinPageBuffer. A Page
+ * can only wrap a byte array, so pinPage of an off-heap page that is not
+ * pinned already allocates a heap copy of it, which is written back and
+ * dropped when the page is unpinned; and a page pinned with pinPageBuffer
+ * cannot be pinned with pinPage until it is unpinned.
+ * With a PageStore set, frames are read and written straight into and out
+ * of the frame's memory, by positional FileChannel calls or through a
+ * mapping of the database file, instead of through the disk manager. A
+ * background writer can clean dirty frames ahead of the replacer, so that a
+ * miss seldom has to write its victim first, and an evictor can keep a list
+ * of empty frames, so that a miss does not have to pick a victim at all.
+ * With read-ahead on, a thread pinning pages in ascending order has the next
+ * ones read in by a background thread before it gets to them. A caller that
+ * knows a set of pages up front can prefetch them or pin them with
+ * pinPages, which reads each run of consecutive missing pages at once.
  */
 public class BufMgr extends AbstractBufMgr {
 	// Replacement policies to be implemented
 	public static final String Clock = "Clock";
 	public static final String LRU = "LRU";
 	public static final String MRU = "MRU";
+	public static final String LRUK = "LRUK";
+	public static final String TwoQ = "TwoQ";
+	public static final String ARC = "ARC";
+	public static final String ClockPro = "ClockPro";
+	public static final String LIRS = "LIRS";
+	public static final String GClock = "GClock";
+
+	// Latch modes for pinPage and unpinPage
+	public static final int LATCH_SHARED = 1;
+	public static final int LATCH_EXCLUSIVE = 2;
+
+	/** Most frames in one direct buffer of an off-heap pool. */
+	private static final int FRAMES_PER_CHUNK = (1 << 30) / MINIBASE_PAGESIZE;
 
 	// Total number of buffer frames in the buffer pool. */
 	private int numBuffers;
-	private Map<PageId, BufMgrFrameDesc> pageTable = new Hashtable<PageId, BufMgrFrameDesc>();
+	private PageTable pageTable;
+	/** The frames of a heap pool; null for an off-heap pool. */
 	private byte[][] buffer;
+	private final boolean offHeap;
 	private BufMgrFrameDesc[] frameTable;
+	/** State word of every frame; see BufMgrFrameDesc. */
+	private AtomicLongArray frameState;
+	private PageLatches latches;
+
+	/** Admission filter consulted on a miss, or null if it is disabled. */
+	private TinyLFU admission = null;
+	/** Frame that holds the last page the admission filter turned away. */
+	private int transientFrame = -1;
+	/** Frames looked at for a new transient frame. */
+	private static final int TRANSIENT_SAMPLE = 8;
+	/** Next frame looked at for a transient frame when there is none. */
+	private int transientCursor = 0;
+
+	/** Guards the replacer and the frame table. */
+	private final ReentrantLock poolLock = new ReentrantLock();
+	/** Threads blocked in pinPage for a frame, longest waiting first. */
+	private final ArrayDeque<FrameWaiter> frameWaiters = new ArrayDeque<FrameWaiter>();
+	/** Number of times a frame became unpinned; changed under poolLock. */
+	private volatile long releaseCount = 0;
+	/** Signalled whenever a write made without the pool lock is over. */
+	private final Condition writeDone = poolLock.newCondition();
+	/**
+	 * Serializes page reads and writes through the disk manager. No other
+	 * lock is taken while it is held, so it may be taken with or without the
+	 * pool lock. Not taken for I/O through a page store. Shared by the
+	 * partitions of a PartitionedBufMgr.
+	 */
+	private final ReentrantLock diskLock;
+	/**
+	 * Serializes page allocation in the disk manager, which pins and unpins
+	 * space map pages. Never taken with the pool lock or the disk lock held.
+	 * Shared by the partitions of a PartitionedBufMgr.
+	 */
+	private final ReentrantLock allocLock;
+	/** Where frames are read from and written to, or null to use DB. */
+	private volatile PageStore pageStore = null;
+	/** The running background writer, or null; changed under poolLock. */
+	private BackgroundWriter backgroundWriter = null;
+
+	/**
+	 * Most pages the evictor evicts or writes before it checks the free
+	 * frames again.
+	 */
+	private static final int EVICT_BATCH = 16;
+	/** The running evictor, or null; changed under poolLock. */
+	private Evictor evictor = null;
+	/**
+	 * Empty frames kept by the evictor, which the replacer leaves alone until
+	 * they are loaded; freeFrames[0..freeCount) under poolLock.
+	 */
+	private int[] freeFrames = new int[0];
+	private int freeCount = 0;
+	private int lowWater = 0;
+	private int highWater = 0;
+	/** Signalled when the evictor should look at the free frames again. */
+	private final Condition evictNeeded = poolLock.newCondition();
+	/**
+	 * Reads ahead of sequential pins and serves prefetch, or null; changed
+	 * under poolLock.
+	 */
+	private volatile ReadAhead readAhead = null;
+	/**
+	 * Frames holding a page read ahead that nobody has pinned since; guarded
+	 * by poolLock.
+	 */
+	private boolean[] unusedReadAhead;
+	/** Set in what claim returns when the caller must read the page in. */
+	private static final int MUST_READ = 1 << 31;
 
 	/**
 	 * Create a buffer manager object.
@@ -57,36 +185,1099 @@ public class BufMgr extends AbstractBufMgr {
 	 */
 	public BufMgr(int numbufs, String replacerArg)
 			throws InvalidReplacerException {
+		this(numbufs, replacerArg, false);
+	}
+
+	/**
+	 * Create a buffer manager object whose frames may live off the heap.
+	 * 
+	 * @param numbufs
+	 *            number of buffers in the buffer pool.
+	 * @param replacerArg
+	 *            name of the buffer replacement policy (e.g. BufMgr.Clock).
+	 * @param offHeap
+	 *            true to keep the frames in direct buffers, for callers that
+	 *            pin pages with pinPageBuffer.
+	 * @throws InvalidReplacerException
+	 */
+	public BufMgr(int numbufs, String replacerArg, boolean offHeap)
+			throws InvalidReplacerException {
+		this(numbufs, replacerArg, offHeap, new ReentrantLock(),
+				new ReentrantLock());
+	}
+
+	/**
+	 * Creates a buffer manager that shares its disk locks with others.
+	 * 
+	 * @param diskLock
+	 *            the lock serializing page reads and writes through the disk
+	 *            manager.
+	 * @param allocLock
+	 *            the lock serializing page allocation in the disk manager.
+	 */
+	BufMgr(int numbufs, String replacerArg, boolean offHeap,
+			ReentrantLock diskLock, ReentrantLock allocLock)
+			throws InvalidReplacerException {
+		this.diskLock = diskLock;
+		this.allocLock = allocLock;
+		this.offHeap = offHeap;
 		numBuffers = numbufs;
 		setReplacer(replacerArg);
 		init();
 		((BufMgrReplacer) replacer).setBufferManager(this);
 	}
 
-	private void init() {
-		buffer = new byte[numBuffers][MINIBASE_PAGESIZE];
-		frameTable = new BufMgrFrameDesc[numBuffers];
-		for (int i = 0; i < buffer.length; i++) {
-			buffer[i] = new byte[MINIBASE_PAGESIZE];
+	private void init() {
+		frameTable = new BufMgrFrameDesc[numBuffers];
+		frameState = new AtomicLongArray(numBuffers);
+		pageTable = new PageTable(numBuffers);
+		latches = new PageLatches(numBuffers);
+		unusedReadAhead = new boolean[numBuffers];
+		if (offHeap) {
+			ByteBuffer chunk = null;
+			for (int i = 0; i < numBuffers; i++) {
+				int slot = i % FRAMES_PER_CHUNK;
+				if (slot == 0) {
+					chunk = allocateChunk(Math.min(FRAMES_PER_CHUNK, numBuffers - i));
+				}
+				frameTable[i] = new BufMgrFrameDesc(frameState, chunk.slice(slot
+						* MINIBASE_PAGESIZE, MINIBASE_PAGESIZE), i);
+			}
+		} else {
+			buffer = new byte[numBuffers][MINIBASE_PAGESIZE];
+			for (int i = 0; i < buffer.length; i++) {
+				frameTable[i] = new BufMgrFrameDesc(frameState, buffer[i], i);
+			}
+		}
+	}
+
+	/**
+	 * Allocates a direct buffer for a run of frames, starting on a page
+	 * boundary.
+	 */
+	private static ByteBuffer allocateChunk(int frames) {
+		return ByteBuffer.allocateDirect((frames + 1) * MINIBASE_PAGESIZE)
+				.alignedSlice(MINIBASE_PAGESIZE);
+	}
+
+	/**
+	 * Default Constructor Create a buffer manager object.
+	 * 
+	 * @throws InvalidReplacerException
+	 */
+	public BufMgr() throws InvalidReplacerException {
+		diskLock = new ReentrantLock();
+		allocLock = new ReentrantLock();
+		offHeap = false;
+		numBuffers = 1;
+		init();
+		replacer = new Clock(this);
+	}
+
+	/**
+	 * Turns the TinyLFU admission filter on or off. When it is on, a page
+	 * read in on a miss only displaces the replacer's victim if it has been
+	 * pinned more often recently than the victim's page. A colder page is
+	 * served through a single transient frame instead, so pages used once
+	 * keep recycling that frame rather than evicting hot pages. While there
+	 * is no unpinned transient frame, the coldest of the next few unpinned
+	 * frames becomes one. The filter works in front of any replacer.
+	 * 
+	 * @param enabled
+	 *            true to filter admissions, false to admit every page.
+	 */
+	public void setAdmissionFilter(boolean enabled) {
+		poolLock.lock();
+		try {
+			admission = enabled ? new TinyLFU(numBuffers) : null;
+			transientFrame = -1;
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * Turns I/O through a FileChannel on or off. When it is on, pages are
+	 * read into and written from the frames directly at their offset in the
+	 * database file. Turn it on after the database is opened, and off before
+	 * another one is.
+	 * 
+	 * @param enabled
+	 *            true to open the database file, false to close it.
+	 * @exception IOException
+	 *                if the file cannot be opened or closed.
+	 * @see ChannelPageStore
+	 */
+	public void setChannelIO(boolean enabled) throws IOException {
+		setPageStore(enabled ? new ChannelPageStore(
+				SystemDefs.JavabaseDB.db_name()) : null);
+	}
+
+	/**
+	 * Sets where frames are read from and written to instead of the disk
+	 * manager, which still allocates and deallocates pages. Reads and writes
+	 * through a page store need no disk lock, so misses on different pages
+	 * are read in at the same time. The store set before is closed.
+	 * 
+	 * @param store
+	 *            the page store of the open database, or null to do all I/O
+	 *            through the disk manager.
+	 * @exception IOException
+	 *                if the store set before cannot be closed.
+	 */
+	public void setPageStore(PageStore store) throws IOException {
+		poolLock.lock();
+		try {
+			PageStore old = pageStore;
+			pageStore = store;
+			if (old != null && old != store) {
+				old.close();
+			}
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * Starts a thread that writes dirty, unpinned frames to disk ahead of the
+	 * replacer, from the frame it will look at next onwards, so that misses
+	 * find clean victims. Each round it writes at most maxWrites frames, and
+	 * only as many as bring the number of dirty frames down to dirtyTarget,
+	 * in page number order. Each frame is marked as being written and
+	 * written with the pool lock let go, so misses and pins go on meanwhile;
+	 * a miss that picks the frame as its victim waits for the write. A
+	 * writer already running is stopped first.
+	 * 
+	 * @param dirtyTarget
+	 *            the number of dirty frames the writer leaves alone.
+	 * @param maxWrites
+	 *            the most frames written in one round.
+	 * @param interval
+	 *            the time between rounds.
+	 * @param unit
+	 *            the unit of interval.
+	 * @exception IllegalArgumentException
+	 *                if dirtyTarget is negative or maxWrites or interval is
+	 *                not positive.
+	 * @exception InterruptedException
+	 *                if interrupted while stopping the writer already running.
+	 */
+	public void startBackgroundWriter(int dirtyTarget, int maxWrites,
+			long interval, TimeUnit unit) throws InterruptedException {
+		BackgroundWriter writer = new BackgroundWriter(this, dirtyTarget,
+				maxWrites, interval, unit);
+		stopBackgroundWriter();
+		poolLock.lock();
+		try {
+			backgroundWriter = writer;
+		} finally {
+			poolLock.unlock();
+		}
+		writer.start();
+	}
+
+	/**
+	 * Stops the background writer, if one is running, once its current
+	 * round is over.
+	 * 
+	 * @exception InterruptedException
+	 *                if interrupted while waiting for the writer.
+	 */
+	public void stopBackgroundWriter() throws InterruptedException {
+		BackgroundWriter writer;
+		poolLock.lock();
+		try {
+			writer = backgroundWriter;
+			backgroundWriter = null;
+		} finally {
+			poolLock.unlock();
+		}
+		// the writer takes the pool lock, so it is not held while waiting
+		if (writer != null) {
+			writer.stop();
+		}
+	}
+
+	/**
+	 * Starts a thread that evicts pages ahead of misses and keeps the empty
+	 * frames on a list. A miss takes a frame off the list, without running
+	 * the replacer; when fewer than lowWater frames are left, the evictor
+	 * evicts pages chosen by the replacer until there are highWater, writing
+	 * dirty ones first without the pool lock. The replacer is told of every page evicted this way
+	 * and remembers it as it would a replaced one. Only when the list is
+	 * empty does a miss pick a victim itself, and only then is the admission
+	 * filter consulted. An evictor already running is stopped first.
+	 * 
+	 * @param lowWater
+	 *            the number of free frames below which the evictor runs.
+	 * @param highWater
+	 *            the number of free frames the evictor stops at.
+	 * @exception IllegalArgumentException
+	 *                unless 0 < lowWater <= highWater <= number of buffers.
+	 * @exception InterruptedException
+	 *                if interrupted while stopping the evictor already
+	 *                running.
+	 */
+	public void startEvictor(int lowWater, int highWater)
+			throws InterruptedException {
+		if (lowWater < 1 || lowWater > highWater || highWater > numBuffers) {
+			throw new IllegalArgumentException(
+					"BufrMgr::startEvictor: watermarks must satisfy 0 < low <= high <= number of buffers");
+		}
+		stopEvictor();
+		Evictor started = new Evictor(this);
+		poolLock.lock();
+		try {
+			this.lowWater = lowWater;
+			this.highWater = highWater;
+			freeFrames = new int[highWater];
+			evictor = started;
+		} finally {
+			poolLock.unlock();
+		}
+		started.start();
+	}
+
+	/**
+	 * Stops the evictor, if one is running, and hands the free frames back to
+	 * the replacer.
+	 * 
+	 * @exception InterruptedException
+	 *                if interrupted while waiting for the evictor.
+	 */
+	public void stopEvictor() throws InterruptedException {
+		Evictor stopped;
+		poolLock.lock();
+		try {
+			stopped = evictor;
+			evictor = null;
+		} finally {
+			poolLock.unlock();
+		}
+		if (stopped == null) {
+			return;
+		}
+		stopped.stop();
+
+		poolLock.lock();
+		try {
+			while (freeCount > 0) {
+				try {
+					replacer.free(freeFrames[--freeCount]);
+				} catch (PagePinnedException e) {
+					// the frame is empty and unpinned
+				}
+			}
+			lowWater = 0;
+			highWater = 0;
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/** Wakes the evictor up; called without the pool lock. */
+	void wakeEvictor() {
+		poolLock.lock();
+		try {
+			evictNeeded.signal();
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the free frames fall below the low watermark, then evicts
+	 * up to EVICT_BATCH pages towards the high watermark. Called over and
+	 * over by the evictor thread.
+	 */
+	void refillFreeFrames(Evictor self) {
+		poolLock.lock();
+		try {
+			while (!self.stopping && freeCount >= lowWater) {
+				evictNeeded.awaitUninterruptibly();
+			}
+			for (int i = 0; i < EVICT_BATCH && !self.stopping
+					&& freeCount < highWater; i++) {
+				if (!evictOne()) {
+					// nothing to evict until a frame is unpinned or a write
+					// can be retried
+					evictNeeded.awaitNanos(TimeUnit.MILLISECONDS.toNanos(100));
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// the evictor is only interrupted to stop it
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * Evicts the replacer's victim onto the free list, or, if it is dirty,
+	 * only writes it, without the pool lock. Called with the pool lock held,
+	 * which is held again on return.
+	 * 
+	 * @return false if there was no victim or it could not be written.
+	 */
+	private boolean evictOne() {
+		int victimFrameNo;
+		try {
+			victimFrameNo = replacer.pick_victim();
+		} catch (Exception e) {
+			return false;
+		}
+		BufMgrFrameDesc victimFrame = frameTable[victimFrameNo];
+		if (victimFrame.isWriting()) {
+			// the background writer has it; pick again once it is written
+			writeDone.awaitUninterruptibly();
+			return true;
+		}
+		if (victimFrame.isValid() && victimFrame.isDirty()) {
+			// written with the lock let go; the page may be pinned meanwhile,
+			// so the victim is picked again once it is clean
+			try {
+				writeUnlocked(victimFrame, victimFrame.getPid());
+			} catch (Exception e) {
+				return false;
+			}
+			return true;
+		}
+
+		try {
+			((BufMgrReplacer) replacer).evict(victimFrameNo);
+		} catch (InvalidFrameNumberException e) {
+			return false;
+		}
+		if (victimFrame.isValid()) {
+			pageTable.remove(victimFrame.getPid());
+			victimFrame.invalidate();
+		}
+		if (victimFrameNo == transientFrame) {
+			transientFrame = -1;
+		}
+		freeFrames[freeCount++] = victimFrameNo;
+		return true;
+	}
+
+	/**
+	 * Turns on read-ahead of sequential pins. Once a thread has pinned a few
+	 * pages in a row, each the one after the last, a background thread reads
+	 * the next initialWindow pages into the pool without pinning them; as
+	 * the thread keeps going, the window doubles up to maxWindow. Pages read
+	 * ahead are demoted in the replacer, so wrong guesses are evicted before
+	 * pages in use; they are not evicted to read ahead more pages, though,
+	 * while they are still unused. Read-ahead already on is stopped first.
+	 * 
+	 * @param initialWindow
+	 *            pages read ahead once a run is detected.
+	 * @param maxWindow
+	 *            the most pages read ahead at once; at most a quarter of the
+	 *            buffers, so that a window never takes over the pool.
+	 * @exception IllegalArgumentException
+	 *                unless 0 < initialWindow <= maxWindow <= number of
+	 *                buffers / 4.
+	 * @exception InterruptedException
+	 *                if interrupted while stopping the read-ahead already
+	 *                running.
+	 */
+	public void startReadAhead(int initialWindow, int maxWindow)
+			throws InterruptedException {
+		if (initialWindow < 1 || initialWindow > maxWindow
+				|| maxWindow > numBuffers / 4) {
+			throw new IllegalArgumentException(
+					"BufrMgr::startReadAhead: windows must satisfy 0 < initial <= max <= number of buffers / 4");
+		}
+		stopReadAhead();
+		ReadAhead started = new ReadAhead(this::prefetchRun, initialWindow,
+				maxWindow);
+		poolLock.lock();
+		try {
+			readAhead = started;
+		} finally {
+			poolLock.unlock();
+		}
+		started.start();
+	}
+
+	/**
+	 * Turns read-ahead off, once the pages being read ahead are in. This
+	 * also stops the thread that prefetch started.
+	 * 
+	 * @exception InterruptedException
+	 *                if interrupted while waiting for the read-ahead thread.
+	 */
+	public void stopReadAhead() throws InterruptedException {
+		ReadAhead stopped;
+		poolLock.lock();
+		try {
+			stopped = readAhead;
+			readAhead = null;
+		} finally {
+			poolLock.unlock();
+		}
+		if (stopped != null) {
+			stopped.stop();
+		}
+	}
+
+	/**
+	 * Loads pages into the buffer pool in the background, without pinning
+	 * them, for a caller that knows which pages it will pin next. The pages
+	 * are sorted, and each run of consecutive pages not in the pool is read
+	 * with one read where the page store can do so. Pages loaded this way
+	 * are treated like pages read ahead. A prefetch is only a hint: pages
+	 * past the end of the database are left out, and the rest of a run is
+	 * dropped when the pool has no frames to spare or the background thread
+	 * is too far behind.
+	 * 
+	 * @param pageIds
+	 *            page numbers in the minibase, in any order.
+	 */
+	public void prefetch(PageId[] pageIds) {
+		ReadAhead loader;
+		poolLock.lock();
+		try {
+			loader = readAhead;
+			if (loader == null) {
+				// serves prefetches only, until read-ahead is started or
+				// stopped
+				loader = new ReadAhead(this::prefetchRun, 0, 0);
+				readAhead = loader;
+				loader.start();
+			}
+		} finally {
+			poolLock.unlock();
+		}
+		loader.requestAll(pageIds);
+	}
+
+	/**
+	 * Reads a run of pages into the buffer pool and leaves them unpinned,
+	 * with one read for each run of them that is missing. Pages this call
+	 * read in and nobody pinned meanwhile are then demoted in the replacer.
+	 * The run is read a piece at a time, each piece pinned while it is read
+	 * in, and no piece leaves fewer than half the frames unpinned for other
+	 * threads; a read-ahead window, at most a quarter of the frames, is one
+	 * piece unless the pool is busy. Pages past the end of the database are
+	 * left out, and so is the rest of the run once there are no frames to
+	 * spare, or the next victim is a page read ahead that has not been used
+	 * yet.
+	 */
+	void prefetchRun(PageId firstPage, int count) {
+		int first = Math.max(firstPage.pid, 0);
+		int end = (int) Math.min((long) firstPage.pid + count,
+				SystemDefs.JavabaseDB.db_num_pages());
+		int reserve = numBuffers / 2;
+		while (first < end) {
+			int piece = Math.min(end - first, getNumUnpinnedBuffers()
+					- reserve);
+			if (piece <= 0 || !prefetchPiece(first, piece)) {
+				return;
+			}
+			first += piece;
+		}
+	}
+
+	/**
+	 * Reads count pages from first on into the pool as prefetchRun does.
+	 *
+	 * @return false if some of the pages were left out.
+	 */
+	private boolean prefetchPiece(int first, int count) {
+		PageId[] pageIds = new PageId[count];
+		for (int i = 0; i < pageIds.length; i++) {
+			pageIds[i] = new PageId(first + i);
+		}
+
+		boolean[] missed = new boolean[pageIds.length];
+		BufMgrFrameDesc[] frames;
+		try {
+			frames = pinAll(pageIds, false, true, missed);
+		} catch (Exception e) {
+			// the pages could not be read; pinAll let go of them
+			return false;
+		}
+		poolLock.lock();
+		try {
+			for (int i = 0; i < frames.length; i++) {
+				BufMgrFrameDesc frame = frames[i];
+				if (frame != null && frame.unpin() == 0) {
+					frame.detachHeapCopy();
+					replacer.unpin(frame.getFrameNumber());
+					if (missed[i]) {
+						((BufMgrReplacer) replacer).demote(frame
+								.getFrameNumber());
+						unusedReadAhead[frame.getFrameNumber()] = true;
+					}
+					frameReleased(frame);
+				}
+			}
+		} catch (Exception e) {
+			// cannot happen, the frames were pinned
+		} finally {
+			poolLock.unlock();
+		}
+		// pinAll stops claiming at the first page it cannot make room for
+		return frames[frames.length - 1] != null;
+	}
+
+	/**
+	 * Picks the frames the background writer cleans next: dirty, unpinned
+	 * frames from the replacer's next victim on, as many as there are dirty
+	 * frames above the target. The state words are read without the pool
+	 * lock; cleanFrame checks them again.
+	 * 
+	 * @param batch
+	 *            receives (pid << 32) | frame number for each frame.
+	 * @return the number of frames picked.
+	 */
+	int collectDirtyFrames(long[] batch, int dirtyTarget) {
+		int start;
+		poolLock.lock();
+		try {
+			start = ((BufMgrReplacer) replacer).sweepStart();
+		} finally {
+			poolLock.unlock();
+		}
+
+		int dirty = 0;
+		int found = 0;
+		for (int i = 0; i < numBuffers; i++) {
+			int frameNo = (start + i) % numBuffers;
+			long word = frameTable[frameNo].word();
+			if ((word & BufMgrFrameDesc.DIRTY) == 0) {
+				continue;
+			}
+			dirty++;
+			if (found < batch.length && BufMgrFrameDesc.pinCount(word) == 0
+					&& (word & BufMgrFrameDesc.VALID) != 0
+					&& (word & (BufMgrFrameDesc.IO_IN_PROGRESS
+							| BufMgrFrameDesc.WRITING)) == 0) {
+				batch[found++] = ((long) BufMgrFrameDesc.pid(word) << 32)
+						| frameNo;
+			}
+		}
+		return Math.max(0, Math.min(found, dirty - dirtyTarget));
+	}
+
+	/**
+	 * Writes a frame to disk if it still holds page pid and is dirty and
+	 * unpinned. The frame is checked under the pool lock and written
+	 * without it; a pin that dirties the page meanwhile leaves it dirty.
+	 * 
+	 * @return true if the frame was written.
+	 * @exception BufMgrException
+	 *                if the write failed; the frame stays dirty.
+	 */
+	boolean cleanFrame(int frameNo, int pid) throws BufMgrException {
+		poolLock.lock();
+		try {
+			BufMgrFrameDesc frame = frameTable[frameNo];
+			if (!frame.holds(pid) || !frame.isDirty()
+					|| frame.getPinCount() > 0 || frame.isReading()
+					|| frame.isWriting()) {
+				return false;
+			}
+			try {
+				writeUnlocked(frame, pid);
+			} catch (Exception e) {
+				throw new BufMgrException(e,
+						"BufrMgr::cleanFrame: page cant be written by diskmanager");
+			}
+			return true;
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the page in a frame to disk with the pool lock let go. The
+	 * frame is marked clean and as being written first, so that no miss
+	 * takes it and no one else writes it until the write is over. Called
+	 * with the pool lock held, which is held again on return.
+	 * 
+	 * @exception Exception
+	 *                if the write failed; the frame is dirty again.
+	 */
+	private void writeUnlocked(BufMgrFrameDesc frame, int pid)
+			throws Exception {
+		frame.beginWrite();
+		poolLock.unlock();
+		boolean written = false;
+		try {
+			writeFrame(new PageId(pid), frame);
+			written = true;
+		} finally {
+			frame.endWrite(!written);
+			poolLock.lock();
+			writeDone.signalAll();
+		}
+	}
+
+	/**
+	 * Finds the frame holding a page, waiting first for a write of it made
+	 * without the pool lock. Only called with the pool lock held.
+	 * 
+	 * @return the frame descriptor, or null if the page is not in the pool.
+	 */
+	private BufMgrFrameDesc lookupWritten(PageId pageId) {
+		BufMgrFrameDesc frame = lookup(pageId);
+		while (frame != null && frame.isWriting()) {
+			writeDone.awaitUninterruptibly();
+			frame = lookup(pageId);
+		}
+		return frame;
+	}
+
+	/**
+	 * Check if this page is in buffer pool, otherwise find a frame for this
+	 * page, read in and pin it. Also write out the old page if it's dirty
+	 * before reading. If emptyPage==TRUE, then actually no read is done to
+	 * bring the page in.
+	 * 
+	 * @param pin_pgid
+	 *            page number in the minibase.
+	 * @param page
+	 *            the pointer poit to the page.
+	 * @param emptyPage
+	 *            true (empty page); false (non-empty page)
+	 * 
+	 * @exception ReplacerException
+	 *                if there is a replacer error.
+	 * @exception HashOperationException
+	 *                if there is a hashtable error.
+	 * @exception PageUnpinnedException
+	 *                if there is a page that is already unpinned.
+	 * @exception InvalidFrameNumberException
+	 *                if there is an invalid frame number .
+	 * @exception PageNotReadException
+	 *                if a page cannot be read.
+	 * @exception BufferPoolExceededException
+	 *                if the buffer pool is full.
+	 * @exception PagePinnedException
+	 *                if a page is left pinned .
+	 * @exception BufMgrException
+	 *                other error occured in bufmgr layer
+	 * @exception IOException
+	 *                if there is other kinds of I/O error.
+	 */
+
+	public void pinPage(PageId pageId, Page page, boolean emptyPage)
+			throws ReplacerException, HashOperationException,
+			PageUnpinnedException, InvalidFrameNumberException,
+			PageNotReadException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+
+		BufMgrFrameDesc frame = pin(pageId, emptyPage, true);
+		latches.pinnedUnlatched(frame.getFrameNumber());
+		page.setpage(frame.getData());
+	}
+
+	/**
+	 * Pins a page like pinPage(PageId, Page, boolean), but returns the frame
+	 * as a ByteBuffer instead of pointing a Page at it. This is how the frames
+	 * of an off-heap buffer manager are reached without a copy, and without
+	 * allocating more than the buffer object; for a heap buffer manager the
+	 * buffer wraps the frame's array.
+	 * 
+	 * @param pin_pgid
+	 *            page number in the minibase.
+	 * @param emptyPage
+	 *            true (empty page); false (non-empty page)
+	 * @return a buffer over the frame, valid until the page is unpinned.
+	 * @see #pinPage(PageId, Page, boolean)
+	 */
+	public ByteBuffer pinPageBuffer(PageId pageId, boolean emptyPage)
+			throws ReplacerException, HashOperationException,
+			PageUnpinnedException, InvalidFrameNumberException,
+			PageNotReadException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+
+		BufMgrFrameDesc frame = pin(pageId, emptyPage, false);
+		latches.pinnedUnlatched(frame.getFrameNumber());
+		return frame.view();
+	}
+
+	/**
+	 * Pins a set of pages at once, for a caller that knows them all up
+	 * front. The pages not in the pool are read in page order, and each run
+	 * of consecutive ones with a single read where the page store can do
+	 * so, instead of a read per page. Either every page is pinned or, if one
+	 * cannot be, none is. A page that appears more than once is pinned once
+	 * for each time, and must be unpinned as often.
+	 * 
+	 * @param pageIds
+	 *            page numbers in the minibase, in any order.
+	 * @return the pages, in the order of pageIds.
+	 * @see #pinPage(PageId, Page, boolean)
+	 */
+	public Page[] pinPages(PageId[] pageIds) throws ReplacerException,
+			HashOperationException, PageUnpinnedException,
+			InvalidFrameNumberException, PageNotReadException,
+			BufferPoolExceededException, PagePinnedException, BufMgrException,
+			IOException {
+
+		Integer[] order = new Integer[pageIds.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(pageIds[a].pid,
+				pageIds[b].pid));
+		PageId[] sorted = new PageId[order.length];
+		for (int i = 0; i < order.length; i++) {
+			sorted[i] = pageIds[order[i]];
+		}
+
+		BufMgrFrameDesc[] frames = pinAll(sorted, true, false,
+				new boolean[sorted.length]);
+		Page[] pages = new Page[pageIds.length];
+		for (int i = 0; i < order.length; i++) {
+			latches.pinnedUnlatched(frames[i].getFrameNumber());
+			pages[order[i]] = new Page(frames[i].getData());
+		}
+		return pages;
+	}
+
+	/**
+	 * Pins pages sorted by page number: claims a frame for every page first,
+	 * then reads each run of consecutive pages that must be read in, then
+	 * waits for the pages others are reading. If a page cannot be pinned,
+	 * the pages pinned so far are let go of again.
+	 * 
+	 * @param prefetch
+	 *            true if the pages are only being read ahead; they then
+	 *            count as no access, the admission filter is not asked, and
+	 *            running out of frames just leaves the remaining pages out.
+	 * @param missed
+	 *            set for the pages that this call read in.
+	 * @return the frames pinned, in the order of pageIds; null for pages
+	 *         left out.
+	 */
+	private BufMgrFrameDesc[] pinAll(PageId[] pageIds, boolean heap,
+			boolean prefetch, boolean[] missed) throws ReplacerException,
+			HashOperationException, PageUnpinnedException,
+			InvalidFrameNumberException, PageNotReadException,
+			BufferPoolExceededException, PagePinnedException, BufMgrException,
+			IOException {
+
+		BufMgrFrameDesc[] frames = new BufMgrFrameDesc[pageIds.length];
+		// pages whose read this call started and has not finished
+		boolean[] reading = new boolean[pageIds.length];
+		boolean pinned = false;
+		try {
+			for (int i = 0; i < pageIds.length; i++) {
+				int claimed;
+				try {
+					claimed = claim(pageIds[i], false, heap, prefetch, null);
+				} catch (BufferPoolExceededException e) {
+					if (!prefetch) {
+						throw e;
+					}
+					break;
+				}
+				frames[i] = frameTable[claimed & ~MUST_READ];
+				reading[i] = (claimed & MUST_READ) != 0;
+				missed[i] = reading[i];
+			}
+
+			for (int i = 0; i < pageIds.length;) {
+				if (!reading[i]) {
+					i++;
+					continue;
+				}
+				int end = i + 1;
+				while (end < pageIds.length && reading[end]
+						&& pageIds[end].pid == pageIds[end - 1].pid + 1) {
+					end++;
+				}
+				readInRun(pageIds, frames, reading, i, end);
+				i = end;
+			}
+
+			for (int i = 0; i < pageIds.length; i++) {
+				BufMgrFrameDesc frame = frames[i];
+				if (frame != null) {
+					// a failed read drops the pin
+					frames[i] = null;
+					waitForRead(frame);
+					frames[i] = frame;
+				}
+			}
+			pinned = true;
+			return frames;
+		} finally {
+			if (!pinned) {
+				for (int i = 0; i < pageIds.length; i++) {
+					if (reading[i]) {
+						abandonRead(pageIds[i], frames[i]);
+						latches.release(frames[i].getFrameNumber(), true);
+					} else if (frames[i] != null) {
+						release(pageIds[i], frames[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops a pin that pinAll took on a page that somebody else was reading
+	 * in. If that read failed, the page already left the page table.
+	 */
+	private void release(PageId pageId, BufMgrFrameDesc frame)
+			throws ReplacerException, PageUnpinnedException,
+			InvalidFrameNumberException, PagePinnedException {
+		poolLock.lock();
+		try {
+			if (frame.readFailed()) {
+				releaseFailedRead(frame);
+			} else {
+				dropPin(pageId, false);
+			}
+		} catch (HashEntryNotFoundException e) {
+			// cannot happen, the page is pinned
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the consecutive pages pageIds[from..end) into the frames they
+	 * were just installed in, and marks them read. If the read fails, the
+	 * pages are abandoned as in readIn.
+	 */
+	private void readInRun(PageId[] pageIds, BufMgrFrameDesc[] frames,
+			boolean[] reading, int from, int end) throws PageNotReadException,
+			InvalidFrameNumberException, PageUnpinnedException,
+			PagePinnedException {
+		BufMgrFrameDesc[] run = Arrays.copyOfRange(frames, from, end);
+		try {
+			readRun(pageIds[from], run);
+			for (int i = from; i < end; i++) {
+				frames[i].endRead(false);
+			}
+		} catch (Exception e) {
+			for (int i = from; i < end; i++) {
+				abandonRead(pageIds[i], frames[i]);
+				frames[i] = null;
+			}
+			throw new PageNotReadException(e,
+					"BufrMgr::pinPages: DB_READ_PAGE_ERROR");
+		} finally {
+			for (int i = from; i < end; i++) {
+				reading[i] = false;
+				latches.release(run[i - from].getFrameNumber(), true);
+			}
+		}
+	}
+
+	/**
+	 * Pins a page, reading it in if it is not in the buffer pool.
+	 * 
+	 * @param heap
+	 *            true if the caller needs the frame as a byte array.
+	 * @return the frame the page is pinned in.
+	 * @exception PagePinnedException
+	 *                if the caller needs a byte array but the page is pinned
+	 *                in an off-heap frame through pinPageBuffer.
+	 */
+	private BufMgrFrameDesc pin(PageId pageId, boolean emptyPage, boolean heap)
+			throws ReplacerException, HashOperationException,
+			PageUnpinnedException, InvalidFrameNumberException,
+			PageNotReadException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+		return pin(pageId, emptyPage, heap, null);
+	}
+
+	/**
+	 * Pins a page like pin(PageId, boolean, boolean), for a thread that may
+	 * have been handed a frame while it waited.
+	 * 
+	 * @param waiter
+	 *            the waiting thread, or null.
+	 */
+	private BufMgrFrameDesc pin(PageId pageId, boolean emptyPage,
+			boolean heap, FrameWaiter waiter) throws ReplacerException,
+			HashOperationException, PageUnpinnedException,
+			InvalidFrameNumberException, PageNotReadException,
+			BufferPoolExceededException, PagePinnedException,
+			BufMgrException, IOException {
+
+		ReadAhead sequential = readAhead;
+		if (sequential != null) {
+			sequential.access(pageId.pid);
 		}
+
+		int claimed = claim(pageId, emptyPage, heap, false, waiter);
+		BufMgrFrameDesc frame = frameTable[claimed & ~MUST_READ];
+		if ((claimed & MUST_READ) != 0) {
+			readIn(pageId, frame);
+		} else {
+			waitForRead(frame);
+		}
+		return frame;
 	}
 
 	/**
-	 * Default Constructor Create a buffer manager object.
+	 * Pins a page in a frame, installing it in one if it is not in the
+	 * buffer pool, but does not read it. Whoever else started reading the
+	 * page in may not have finished.
 	 * 
-	 * @throws InvalidReplacerException
+	 * @param prefetch
+	 *            true if the page is only being read ahead; it then counts as
+	 *            no access, and the admission filter is not asked.
+	 * @param waiter
+	 *            the thread, if it waited in pinPage for a frame; a frame
+	 *            handed to it is used before any other.
+	 * @return the frame number, with MUST_READ set if the page was installed
+	 *         to be read in and the caller must read it; the caller then
+	 *         holds the frame's latch exclusively until it has.
+	 * @see #pin(PageId, boolean, boolean)
 	 */
-	public BufMgr() throws InvalidReplacerException {
-		numBuffers = 1;
-		replacer = new Clock(this);
-		init();
+	private int claim(PageId pageId, boolean emptyPage, boolean heap,
+			boolean prefetch, FrameWaiter waiter) throws ReplacerException,
+			HashOperationException, PageUnpinnedException,
+			InvalidFrameNumberException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+
+		// a page that is pinned already cannot be evicted under us, so it can
+		// be pinned again without the pool lock
+		int frameNo = pageTable.get(pageId.pid);
+		if (frameNo != PageTable.NONE
+				&& frameTable[frameNo].pinIfPinned(pageId.pid)) {
+			BufMgrFrameDesc frame = frameTable[frameNo];
+			// whether the frame has a heap copy cannot change while it is
+			// pinned
+			if (heap && frame.getData() == null) {
+				try {
+					dropPin(pageId, false);
+				} catch (HashEntryNotFoundException e) {
+					// cannot happen, the page is pinned
+					throw new BufMgrException(e, "BufrMgr::pinPage: pinned page not loaded");
+				}
+				throw pinnedOffHeap();
+			}
+			return frameNo;
+		}
+
+		BufMgrFrameDesc frame;
+		boolean reading = false;
+		poolLock.lock();
+		try {
+			frame = lookup(pageId);
+			// pins taken without the lock are not counted; the page is
+			// resident anyway
+			if (admission != null && !prefetch) {
+				admission.recordAccess(pageId.pid);
+			}
+			// we need a victim frame if the page has to be loaded
+			int victimFrameNo = -1;
+			while (frame == null) {
+				if (waiter != null && waiter.frameNo != FrameWaiter.NO_FRAME) {
+					// the empty frame handed over while we waited
+					victimFrameNo = waiter.frameNo;
+					waiter.frameNo = FrameWaiter.NO_FRAME;
+				} else if (freeCount > 0) {
+					// an empty frame the evictor made ready
+					victimFrameNo = freeFrames[--freeCount];
+					if (freeCount < lowWater) {
+						evictNeeded.signal();
+					}
+				} else {
+					victimFrameNo = replacer.pick_victim();
+					if (admission != null && !prefetch) {
+						victimFrameNo = admit(pageId, victimFrameNo);
+					}
+				}
+				BufMgrFrameDesc victimFrame = frameTable[victimFrameNo];
+				if (prefetch && victimFrame.isValid()
+						&& unusedReadAhead[victimFrameNo]) {
+					// reading ahead would push out a page read ahead that
+					// is still to be used
+					throw new BufferPoolExceededException(null,
+							"BufrMgr::pinPage: next victim was read ahead");
+				}
+				if (victimFrame.isWriting()) {
+					writeDone.awaitUninterruptibly();
+				} else if (victimFrame.isValid() && victimFrame.isDirty()) {
+					// written with the lock let go, as the evictor writes
+					int victimPid = victimFrame.getPid();
+					try {
+						writeUnlocked(victimFrame, victimPid);
+					} catch (Exception e) {
+						throw new BufMgrException(e,
+								"BufrMgr::pinPage: victim cant be written by diskmanager");
+					}
+					// the victim is taken unless it was pinned, dirtied or
+					// reused meanwhile, or someone read the page in
+					frame = lookup(pageId);
+					if (frame == null && victimFrame.holds(victimPid)
+							&& reusable(victimFrame) && !victimFrame.isDirty()) {
+						break;
+					}
+					continue;
+				} else {
+					break;
+				}
+				// someone may have read the page in meanwhile
+				frame = lookup(pageId);
+			}
+			if (frame != null) {
+				// page is already loaded
+				if (heap && frame.getData() == null) {
+					if (frame.getPinCount() > 0) {
+						throw pinnedOffHeap();
+					}
+					frame.attachHeapCopy(true);
+				}
+				returnPageInfo(frame);
+			} else {
+				// page has to be loaded into a clean victim
+				BufMgrFrameDesc victimFrame = frameTable[victimFrameNo];
+
+				((BufMgrReplacer) replacer).load(victimFrameNo, pageId);
+
+				// delete the entry from pageTable
+				if (victimFrame.isValid()) {
+					pageTable.remove(victimFrame.getPid());
+				}
+				frame = victimFrame;
+				reading = !emptyPage;
+				frame.install(pageId.pid, reading);
+				if (heap) {
+					frame.attachHeapCopy(false);
+				}
+				if (reading) {
+					// held until the read is over; whoever pins the page
+					// meanwhile waits for it instead of reading it again
+					latches.acquire(victimFrameNo, true);
+				} else {
+					latches.advanceVersion(victimFrameNo);
+				}
+				returnPageInfo(frame);
+				pageTable.put(pageId.pid, victimFrameNo);
+			}
+		} finally {
+			poolLock.unlock();
+		}
+		return frame.getFrameNumber() | (reading ? MUST_READ : 0);
+	}
+
+	private static PagePinnedException pinnedOffHeap() {
+		return new PagePinnedException(null,
+				"BufrMgr::pinPage: page is pinned off the heap through pinPageBuffer");
 	}
 
 	/**
-	 * Check if this page is in buffer pool, otherwise find a frame for this
-	 * page, read in and pin it. Also write out the old page if it's dirty
-	 * before reading. If emptyPage==TRUE, then actually no read is done to
-	 * bring the page in.
+	 * Like pinPage(PageId, Page, boolean), but if every frame is pinned, waits
+	 * for one to be unpinned instead of failing at once. Waiting threads are
+	 * served in the order they began to wait: a frame unpinned while any
+	 * thread waits is emptied and handed to the one that has waited longest,
+	 * which alone is woken, so no other pin can take it. A frame unpinned
+	 * dirty has to be written before it can be emptied, which is not done
+	 * under the pool lock; the longest waiting thread is then only woken to
+	 * try for it like any other pin, and goes on waiting first in line if
+	 * another thread takes it. The wait parks on a Condition of the pool
+	 * lock, so it does not tie up the carrier of a virtual thread.
 	 * 
 	 * @param pin_pgid
 	 *            page number in the minibase.
@@ -94,97 +1285,387 @@ public class BufMgr extends AbstractBufMgr {
 	 *            the pointer poit to the page.
 	 * @param emptyPage
 	 *            true (empty page); false (non-empty page)
+	 * @param timeout
+	 *            the longest time to wait for a frame.
+	 * @param unit
+	 *            the unit of timeout.
 	 * 
-	 * @exception ReplacerException
-	 *                if there is a replacer error.
-	 * @exception HashOperationException
-	 *                if there is a hashtable error.
-	 * @exception PageUnpinnedException
-	 *                if there is a page that is already unpinned.
-	 * @exception InvalidFrameNumberException
-	 *                if there is an invalid frame number .
-	 * @exception PageNotReadException
-	 *                if a page cannot be read.
 	 * @exception BufferPoolExceededException
-	 *                if the buffer pool is full.
-	 * @exception PagePinnedException
-	 *                if a page is left pinned .
-	 * @exception BufMgrException
-	 *                other error occured in bufmgr layer
-	 * @exception IOException
-	 *                if there is other kinds of I/O error.
+	 *                if no frame was unpinned before the timeout.
+	 * @exception InterruptedException
+	 *                if the thread is interrupted while waiting.
+	 * @see #pinPage(PageId, Page, boolean)
 	 */
+	public void pinPage(PageId pageId, Page page, boolean emptyPage,
+			long timeout, TimeUnit unit) throws ReplacerException,
+			HashOperationException, PageUnpinnedException,
+			InvalidFrameNumberException, PageNotReadException,
+			BufferPoolExceededException, PagePinnedException, BufMgrException,
+			IOException, InterruptedException {
 
-	public void pinPage(PageId pageId, Page page, boolean emptyPage)
-			throws ReplacerException, HashOperationException,
-			PageUnpinnedException, InvalidFrameNumberException,
-			PageNotReadException, BufferPoolExceededException,
-			PagePinnedException, BufMgrException, IOException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		FrameWaiter waiter = null;
+		try {
+			while (true) {
+				long seen = releaseCount;
+				try {
+					BufMgrFrameDesc frame = pin(pageId, emptyPage, true, waiter);
+					latches.pinnedUnlatched(frame.getFrameNumber());
+					page.setpage(frame.getData());
+					return;
+				} catch (BufferPoolExceededException e) {
+					poolLock.lock();
+					try {
+						if (waiter == null) {
+							waiter = new FrameWaiter(poolLock.newCondition());
+							frameWaiters.addLast(waiter);
+						}
+						// a frame unpinned before we queued up: try again now
+						while (waiter.frameNo == FrameWaiter.NO_FRAME
+								&& releaseCount == seen) {
+							long nanos = deadline - System.nanoTime();
+							if (nanos <= 0) {
+								throw e;
+							}
+							waiter.woken.awaitNanos(nanos);
+						}
+					} finally {
+						poolLock.unlock();
+					}
+				}
+			}
+		} finally {
+			if (waiter != null) {
+				poolLock.lock();
+				try {
+					frameWaiters.remove(waiter);
+					if (waiter.frameNo != FrameWaiter.NO_FRAME) {
+						// handed over, but the page was found in the pool or
+						// the wait given up
+						handOff(waiter.frameNo);
+					} else if (!frameWaiters.isEmpty()) {
+						// a wakeup for a dirty frame may have been ours
+						frameWaiters.peek().woken.signal();
+					}
+				} finally {
+					poolLock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a page into the frame it was just installed in, without the pool
+	 * lock. If the read fails, the page leaves the page table and the frame is
+	 * freed once everybody who pinned it meanwhile has given it up.
+	 */
+	private void readIn(PageId pageId, BufMgrFrameDesc frame)
+			throws PageNotReadException, InvalidFrameNumberException,
+			PageUnpinnedException, PagePinnedException {
+		try {
+			readFrame(pageId, frame);
+			frame.endRead(false);
+		} catch (Exception e) {
+			abandonRead(pageId, frame);
+			throw new PageNotReadException(e,
+					"BufrMgr::pinPage: DB_READ_PAGE_ERROR");
+		} finally {
+			latches.release(frame.getFrameNumber(), true);
+		}
+	}
+
+	/**
+	 * Gives up on reading a page into the frame it was installed in: the
+	 * page leaves the page table and the caller's pin is dropped. The caller
+	 * still releases the frame's latch.
+	 */
+	private void abandonRead(PageId pageId, BufMgrFrameDesc frame)
+			throws InvalidFrameNumberException, PageUnpinnedException,
+			PagePinnedException {
+		poolLock.lock();
+		try {
+			pageTable.remove(pageId.pid);
+			frame.endRead(true);
+			releaseFailedRead(frame);
+		} finally {
+			poolLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads a page from disk into a frame.
+	 */
+	private void readFrame(PageId pageId, BufMgrFrameDesc frame)
+			throws Exception {
+		PageStore store = pageStore;
+		if (store != null) {
+			store.read(pageId, storeBuffer(pageId, frame));
+			return;
+		}
+		diskLock.lock();
+		try {
+			readFromDB(pageId, frame);
+		} finally {
+			diskLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads consecutive pages from disk into frames, the first page into the
+	 * first frame, with a single read if the page store can do so.
+	 */
+	private void readRun(PageId firstPage, BufMgrFrameDesc[] run)
+			throws Exception {
+		if (run.length == 1) {
+			readFrame(firstPage, run[0]);
+			return;
+		}
+		PageStore store = pageStore;
+		if (store != null) {
+			ByteBuffer[] buffers = new ByteBuffer[run.length];
+			for (int i = 0; i < run.length; i++) {
+				buffers[i] = storeBuffer(new PageId(firstPage.pid + i), run[i]);
+			}
+			store.readRun(firstPage, buffers);
+			return;
+		}
+		// the disk manager reads a page at a time; take its lock only once
+		diskLock.lock();
+		try {
+			for (int i = 0; i < run.length; i++) {
+				readFromDB(new PageId(firstPage.pid + i), run[i]);
+			}
+		} finally {
+			diskLock.unlock();
+		}
+	}
 
-		BufMgrFrameDesc frame = pageTable.get(pageId);
-		byte[] frameData;
-		if (frame != null) {
-			// page is already loaded
-			returnPageInfo(page, frame);
+	/**
+	 * Reads a page into a frame through the disk manager. Called with the
+	 * disk lock held.
+	 */
+	private void readFromDB(PageId pageId, BufMgrFrameDesc frame)
+			throws Exception {
+		byte[] data = frame.getData();
+		if (data != null) {
+			SystemDefs.JavabaseDB.read_page(pageId, new Page(data));
 		} else {
-			// page has to be loaded
+			// the disk manager only reads into arrays
+			Page page = new Page();
+			SystemDefs.JavabaseDB.read_page(pageId, page);
+			frame.memory().put(0, page.getpage());
+		}
+	}
+
+	/**
+	 * Writes the page in a frame to disk.
+	 */
+	private void writeFrame(PageId pageId, BufMgrFrameDesc frame)
+			throws Exception {
+		PageStore store = pageStore;
+		if (store != null) {
+			store.write(pageId, storeBuffer(pageId, frame));
+			return;
+		}
+		byte[] data = frame.getData();
+		if (data == null) {
+			// the disk manager only writes from arrays
+			data = new byte[MINIBASE_PAGESIZE];
+			frame.memory().get(0, data);
+		}
+		diskLock.lock();
+		try {
+			SystemDefs.JavabaseDB.write_page(pageId, new Page(data));
+		} finally {
+			diskLock.unlock();
+		}
+	}
 
-			// we need a victim frame
-			int victimFrameNo;
+	/**
+	 * Returns the frame's bytes for the page store, after the page number
+	 * checks DB would make.
+	 */
+	private ByteBuffer storeBuffer(PageId pageId, BufMgrFrameDesc frame)
+			throws InvalidPageNumberException {
+		if (pageId.pid < 0 || pageId.pid >= SystemDefs.JavabaseDB.db_num_pages()) {
+			throw new InvalidPageNumberException(null,
+					"BufrMgr: page number out of range");
+		}
+		return frame.view();
+	}
 
-			victimFrameNo = replacer.pick_victim();
+	/**
+	 * Waits until a page pinned by the caller has been read in by whoever
+	 * started reading it.
+	 * 
+	 * @exception PageNotReadException
+	 *                if the read failed; the caller's pin is dropped.
+	 */
+	private void waitForRead(BufMgrFrameDesc frame)
+			throws PageNotReadException, InvalidFrameNumberException,
+			PageUnpinnedException, PagePinnedException {
+		if (frame.isReading()) {
+			latches.acquire(frame.getFrameNumber(), false);
+			latches.release(frame.getFrameNumber(), false);
+		}
+		if (frame.readFailed()) {
+			poolLock.lock();
+			try {
+				releaseFailedRead(frame);
+			} finally {
+				poolLock.unlock();
+			}
+			throw new PageNotReadException(null,
+					"BufrMgr::pinPage: DB_READ_PAGE_ERROR");
+		}
+	}
 
-			BufMgrFrameDesc victimFrame = frameTable[victimFrameNo];
+	/**
+	 * Drops one pin on a frame whose read failed, and frees the frame when
+	 * the last one is gone. Called with the pool lock held.
+	 */
+	private void releaseFailedRead(BufMgrFrameDesc frame)
+			throws InvalidFrameNumberException, PageUnpinnedException,
+			PagePinnedException {
+		if (frame.unpin() == 0) {
+			frame.invalidate();
+			frame.detachHeapCopy();
+			replacer.unpin(frame.getFrameNumber());
+			replacer.free(frame.getFrameNumber());
+			frameReleased(frame);
+		}
+	}
 
-			if (victimFrame != null && victimFrame.isDirty()) {
+	/**
+	 * Records that a frame became a replacement candidate. If pinPage calls
+	 * wait for a frame, the frame is emptied and handed to the first of them
+	 * when it is clean; a dirty frame only wakes that one up. Called with the
+	 * pool lock held.
+	 */
+	private void frameReleased(BufMgrFrameDesc frame) {
+		releaseCount++;
+		FrameWaiter first = frameWaiters.peek();
+		if (first != null) {
+			if (frame.getPinCount() == 0 && !frame.isReading()
+					&& !frame.isWriting()
+					&& !(frame.isValid() && frame.isDirty())) {
+				int frameNo = frame.getFrameNumber();
 				try {
-					flushPage(victimFrame.getPageNo());
-				} catch (PageNotFoundException e) {
-					throw new BufMgrException(e,
-							"BufrMgr::pinPage: page number not found in flushPage");
+					((BufMgrReplacer) replacer).evict(frameNo);
+				} catch (InvalidFrameNumberException e) {
+					// cannot happen, the frame is in the frame table
+				}
+				if (frame.isValid()) {
+					pageTable.remove(frame.getPid());
+					frame.invalidate();
 				}
+				if (frameNo == transientFrame) {
+					transientFrame = -1;
+				}
+				handOff(frameNo);
+			} else {
+				first.woken.signal();
 			}
+		}
+		if (freeCount < lowWater) {
+			// the evictor may have been waiting for a victim
+			evictNeeded.signal();
+		}
+	}
 
-			frameData = buffer[victimFrameNo];
+	/**
+	 * Hands an empty frame, out of the replacer, to the pinPage call that has
+	 * waited longest, or back to the replacer if none waits. Called with the
+	 * pool lock held.
+	 */
+	private void handOff(int frameNo) {
+		FrameWaiter first = frameWaiters.poll();
+		if (first != null) {
+			first.frameNo = frameNo;
+			first.woken.signal();
+			return;
+		}
+		try {
+			replacer.free(frameNo);
+		} catch (PagePinnedException e) {
+			// the frame is empty and unpinned
+		}
+	}
 
-			frameTable[victimFrameNo] = new BufMgrFrameDesc(pageId, frameData,
-					victimFrameNo);
+	/**
+	 * Checks the page about to be read in against the replacer's victim.
+	 * Replacers only pick a victim in pick_victim and commit to it when the
+	 * frame is pinned, so another unpinned frame may be used instead.
+	 * 
+	 * @return the frame the page should be read into.
+	 */
+	private int admit(PageId pageId, int victimFrameNo) {
+		BufMgrFrameDesc victimFrame = frameTable[victimFrameNo];
+		if (!victimFrame.isValid()
+				|| admission.admit(pageId.pid, victimFrame.getPid())) {
+			if (victimFrameNo == transientFrame) {
+				transientFrame = -1;
+			}
+			return victimFrameNo;
+		}
 
-			frame = frameTable[victimFrameNo];
+		// the page is colder than the victim: recycle the transient frame
+		if (transientFrame != -1 && reusable(frameTable[transientFrame])) {
+			return transientFrame;
+		}
 
-			// delete the entry from pageTable
-			if (victimFrame != null) {
-				pageTable.remove(victimFrame.getPageNo());
+		// there is none to recycle, so the coldest of the next few unpinned
+		// frames becomes the transient frame, and the victim only goes if
+		// it is the coldest
+		int coldest = victimFrameNo;
+		int coldestFrequency = admission.frequency(victimFrame.getPid());
+		for (int i = 0; i < Math.min(TRANSIENT_SAMPLE, numBuffers); i++) {
+			int frameNo = transientCursor;
+			if (++transientCursor == numBuffers) {
+				transientCursor = 0;
+			}
+			BufMgrFrameDesc frame = frameTable[frameNo];
+			if (frameNo == victimFrameNo || !reusable(frame)) {
+				continue;
+			}
+			int frequency = admission.frequency(frame.getPid());
+			if (frequency < coldestFrequency) {
+				coldest = frameNo;
+				coldestFrequency = frequency;
 			}
-			createPageTableEntry(pageId, page, emptyPage, frame);
 		}
+		transientFrame = coldest;
+		return coldest;
 	}
 
-	private void createPageTableEntry(PageId pageId, Page page,
-			boolean emptyPage, BufMgrFrameDesc frame)
-			throws InvalidFrameNumberException, PageNotReadException {
-		returnPageInfo(page, frame);
-		loadPageFromDisk(pageId, page, emptyPage);
-		pageTable.put(new PageId(pageId.getPid()), frame);
+	/**
+	 * @return whether a frame holds a page that can be replaced: valid,
+	 *         unpinned and with no I/O on it. Empty frames are not reusable,
+	 *         as they may be on the evictor's free list.
+	 */
+	private static boolean reusable(BufMgrFrameDesc frame) {
+		return frame.isValid() && frame.getPinCount() == 0
+				&& !frame.isReading() && !frame.isWriting();
 	}
 
-	private void loadPageFromDisk(PageId pageId, Page page, boolean empty)
-			throws PageNotReadException {
-		if (!empty) {
-			try {
-				SystemDefs.JavabaseDB.read_page(pageId, page);
-			} catch (Exception e) {
-				throw new PageNotReadException(e,
-						"BufrMgr::pinPage: DB_READ_PAGE_ERROR");
-			}
+	/**
+	 * Finds the frame holding a page. Only called with the pool lock held.
+	 * 
+	 * @return the frame descriptor, or null if the page is not in the pool.
+	 */
+	private BufMgrFrameDesc lookup(PageId pageId) {
+		int frameNo = pageTable.get(pageId.pid);
+		if (frameNo == PageTable.NONE || !frameTable[frameNo].holds(pageId.pid)) {
+			return null;
 		}
+		return frameTable[frameNo];
 	}
 
-	private void returnPageInfo(Page page, BufMgrFrameDesc frame)
+	private void returnPageInfo(BufMgrFrameDesc frame)
 			throws InvalidFrameNumberException {
 		frame.pin();
 		replacer.pin(frame.getFrameNumber());
-		page.setpage(frame.getData());
+		unusedReadAhead[frame.getFrameNumber()] = false;
 	}
 
 	/**
@@ -210,24 +1691,192 @@ public class BufMgr extends AbstractBufMgr {
 			throws ReplacerException, PageUnpinnedException,
 			HashEntryNotFoundException, InvalidFrameNumberException {
 
-		BufMgrFrameDesc frame = pageTable.get(pageId);
+		int frameNo = pageTable.get(pageId.pid);
+		if (frameNo != PageTable.NONE && frameTable[frameNo].holds(pageId.pid)
+				&& frameTable[frameNo].getPinCount() > 0) {
+			// before the pin is dropped, so that an optimistic reader that
+			// finds the pin gone finds the version moved on too
+			latches.unpinnedUnlatched(frameNo, dirty);
+		}
+		dropPin(pageId, dirty);
+	}
+
+	/**
+	 * Unpins a page, whether or not it was pinned with a latch; the latch
+	 * is already released.
+	 */
+	private void dropPin(PageId pageId, boolean dirty)
+			throws ReplacerException, PageUnpinnedException,
+			HashEntryNotFoundException, InvalidFrameNumberException {
+
+		// the dirty bit is set in the same step that drops the pin, so whoever
+		// evicts the page sees it; a clean unpin never clears another
+		// caller's changes
+		int frameNo = pageTable.get(pageId.pid);
+		if (frameNo != PageTable.NONE
+				&& frameTable[frameNo].unpinIfShared(pageId.pid, dirty)) {
+			return;
+		}
 
-		if (frame != null) {
-			int pinCount = frame.getPinCount();
-			if (pinCount == 0) {
-				throw new PageUnpinnedException(null,
-						"BufrMgr::unPinPage: page to be unpinned is already unpinned");
+		poolLock.lock();
+		try {
+			BufMgrFrameDesc frame = lookup(pageId);
+			if (frame != null) {
+				int pinCount = frame.getPinCount();
+				if (pinCount == 0) {
+					throw new PageUnpinnedException(null,
+							"BufrMgr::unPinPage: page to be unpinned is already unpinned");
+				} else {
+					if (dirty) {
+						frame.setDirtybit(true);
+					}
+					if (frame.unpin() == 0) {
+						frame.detachHeapCopy();
+						replacer.unpin(frame.getFrameNumber());
+						frameReleased(frame);
+					}
+				}
 			} else {
-				frame.unpin();
-				if (frame.getPinCount() == 0)
-					replacer.unpin(frame.getFrameNumber());
+				throw new HashEntryNotFoundException(null,
+						"BufrMgr::unPinPage: page to be unpinned not loaded");
 			}
+		} finally {
+			poolLock.unlock();
+		}
+	}
 
-			frame.setDirtybit(dirty);
-		} else {
+	/**
+	 * Pins a page like pinPage(PageId, Page, boolean) and then latches it,
+	 * waiting while another thread holds the latch in a conflicting mode.
+	 * 
+	 * @param pin_pgid
+	 *            page number in the minibase.
+	 * @param page
+	 *            the pointer poit to the page.
+	 * @param emptyPage
+	 *            true (empty page); false (non-empty page)
+	 * @param latchMode
+	 *            BufMgr.LATCH_SHARED or BufMgr.LATCH_EXCLUSIVE.
+	 * 
+	 * @exception IllegalArgumentException
+	 *                if the latch mode is not one of the two.
+	 * @see #pinPage(PageId, Page, boolean)
+	 */
+	public void pinPage(PageId pageId, Page page, boolean emptyPage,
+			int latchMode) throws ReplacerException, HashOperationException,
+			PageUnpinnedException, InvalidFrameNumberException,
+			PageNotReadException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+
+		boolean exclusive = isExclusive(latchMode);
+		BufMgrFrameDesc frame = pin(pageId, emptyPage, true);
+		page.setpage(frame.getData());
+		// the page is pinned, so it stays in this frame
+		latches.acquire(frame.getFrameNumber(), exclusive);
+	}
+
+	/**
+	 * Releases the latch taken by pinPage(PageId, Page, boolean, int) and
+	 * unpins the page like unpinPage(PageId, boolean).
+	 * 
+	 * @param globalPageId_in_a_DB
+	 *            page number in the minibase.
+	 * @param dirty
+	 *            the dirty bit of the frame
+	 * @param latchMode
+	 *            the mode the page was latched in.
+	 * 
+	 * @exception IllegalArgumentException
+	 *                if the latch mode is not one of the two.
+	 * @exception IllegalMonitorStateException
+	 *                if the page is not latched in that mode.
+	 * @see #unpinPage(PageId, boolean)
+	 */
+	public void unpinPage(PageId pageId, boolean dirty, int latchMode)
+			throws ReplacerException, PageUnpinnedException,
+			HashEntryNotFoundException, InvalidFrameNumberException {
+
+		boolean exclusive = isExclusive(latchMode);
+		int frameNo = pageTable.get(pageId.pid);
+		if (frameNo == PageTable.NONE || !frameTable[frameNo].holds(pageId.pid)) {
 			throw new HashEntryNotFoundException(null,
 					"BufrMgr::unPinPage: page to be unpinned not loaded");
 		}
+		latches.release(frameNo, exclusive);
+		dropPin(pageId, dirty);
+	}
+
+	private static boolean isExclusive(int latchMode) {
+		if (latchMode != LATCH_SHARED && latchMode != LATCH_EXCLUSIVE) {
+			throw new IllegalArgumentException("BufrMgr: invalid latch mode "
+					+ latchMode);
+		}
+		return latchMode == LATCH_EXCLUSIVE;
+	}
+
+	/**
+	 * Starts an optimistic read of a page that is in the buffer pool. The
+	 * page is neither pinned nor latched; page is pointed at the frame, and
+	 * whatever is read from it counts only if validate(pageId, stamp)
+	 * returns true afterwards. Until then the bytes may belong to another
+	 * page or be half-written, so nothing read may be trusted, not even as
+	 * an offset. Only changes made under the page's exclusive latch, or by a
+	 * caller that unpins the page dirty, are noticed; so a page that is read
+	 * optimistically must only be changed by callers that latch it
+	 * exclusively or pin it without a latch. The read fails validation as
+	 * long as the page is pinned by anyone through pinPage, pinPageBuffer or
+	 * pinPages without a latch, since they may be changing it. Eviction and
+	 * reads from disk are always noticed.
+	 * 
+	 * @param pageId
+	 *            page number in the minibase.
+	 * @param page
+	 *            the page to point at the frame.
+	 * @return a stamp for validate, or 0 if the page is not in the buffer
+	 *         pool, is latched exclusively or is in an off-heap frame
+	 *         without a heap copy; then pin it instead.
+	 */
+	public long tryOptimisticRead(PageId pageId, Page page) {
+		int frameNo = pageTable.get(pageId.pid);
+		if (frameNo == PageTable.NONE) {
+			return 0;
+		}
+		long version = latches.version(frameNo);
+		BufMgrFrameDesc frame = frameTable[frameNo];
+		byte[] data = frame.getData();
+		if ((version & 1) != 0 || !frame.holds(pageId.pid) || frame.isReading()
+				|| frame.readFailed() || data == null) {
+			return 0;
+		}
+		page.setpage(data);
+		return ((version + 1) << 32) | frameNo;
+	}
+
+	/**
+	 * Checks that nothing changed the page since tryOptimisticRead returned
+	 * the stamp.
+	 * 
+	 * @param pageId
+	 *            the page passed to tryOptimisticRead.
+	 * @param stamp
+	 *            the stamp it returned.
+	 * @return true if what was read from the page in between is valid.
+	 */
+	public boolean validate(PageId pageId, long stamp) {
+		if (stamp == 0) {
+			return false;
+		}
+		int frameNo = (int) stamp;
+		BufMgrFrameDesc frame = frameTable[frameNo];
+		// the reads of the page must not move below these checks
+		VarHandle.acquireFence();
+		// a pin taken without a latch may be a writer still at work; checked
+		// before the version, which such a writer moves on before it unpins
+		if (latches.unlatchedPins(frameNo) > 0) {
+			return false;
+		}
+		return latches.version(frameNo) + 1 == stamp >>> 32
+				&& frame.holds(pageId.pid) && !frame.readFailed();
 	}
 
 	/**
@@ -273,8 +1922,18 @@ public class BufMgr extends AbstractBufMgr {
 
 		PageId newPageId = new PageId();
 
+		// DB pins and unpins space map pages, so no pool lock is held here
 		try {
-			SystemDefs.JavabaseDB.allocate_page(newPageId, howmany);
+			allocLock.lock();
+			try {
+				SystemDefs.JavabaseDB.allocate_page(newPageId, howmany);
+			} finally {
+				allocLock.unlock();
+			}
+			PageStore store = pageStore;
+			if (store != null) {
+				store.allocate(newPageId, howmany);
+			}
 		} catch (Exception e) {
 			throw new DiskMgrException(e,
 					"BUFMGR::newPage() failed during allocating disk page");
@@ -284,7 +1943,12 @@ public class BufMgr extends AbstractBufMgr {
 			pinPage(newPageId, firstpage, true);
 		} catch (Exception e) {
 			try {
-				SystemDefs.JavabaseDB.deallocate_page(newPageId, howmany);
+				allocLock.lock();
+				try {
+					SystemDefs.JavabaseDB.deallocate_page(newPageId, howmany);
+				} finally {
+					allocLock.unlock();
+				}
 			} catch (Exception e1) {
 				throw new DiskMgrException(e, "BUFMGR::newPage() failed "
 						+ "after pinPage failed and deallocate page failed");
@@ -334,43 +1998,47 @@ public class BufMgr extends AbstractBufMgr {
 			PageUnpinnedException, HashEntryNotFoundException, BufMgrException,
 			DiskMgrException, IOException {
 
-		BufMgrFrameDesc frame = pageTable.get(pageId);
-
-		if (frame != null) {
-			int pinCount = frame.getPinCount();
+		poolLock.lock();
+		try {
+			BufMgrFrameDesc frame = lookupWritten(pageId);
 
-			if (pinCount > 1) {
-				throw new PagePinnedException(null,
-						"BufrMgr::freePage: page to be freed not loaded");
-			} else {
-				if (pinCount == 1) {
-					frame.unpin();
-					replacer.unpin(frame.getFrameNumber());
-				}
-				// remove from pagetable/frametable
-				pageTable.remove(pageId);
+			if (frame != null) {
+				int pinCount = frame.getPinCount();
 
-				// add it to empty list
-				frameTable[frame.getFrameNumber()] = null;
-				replacer.free(frame.getFrameNumber());
+				if (pinCount > 1 || frame.isReading()) {
+					throw new PagePinnedException(null,
+							"BufrMgr::freePage: page to be freed not loaded");
+				} else {
+					if (pinCount == 1) {
+						frame.unpin();
+						replacer.unpin(frame.getFrameNumber());
+					}
+					// remove from pagetable/frametable
+					pageTable.remove(pageId.pid);
 
-				// free it on disk
-				try {
-					SystemDefs.JavabaseDB.deallocate_page(pageId);
-				} catch (Exception e1) {
-					throw new DiskMgrException(e1, "BUFMGR::freepage failed "
-							+ "after pinPage failed and deallocate page failed");
+					// add it to empty list
+					frame.invalidate();
+					frame.detachHeapCopy();
+					replacer.free(frame.getFrameNumber());
+					// only now, so that it is handed over empty
+					frameReleased(frame);
 				}
-
 			}
+		} finally {
+			poolLock.unlock();
+		}
 
-		} else {
-			// free it on disk
+		// free it on disk; DB pins and unpins space map pages, so this is
+		// done without the pool lock
+		try {
+			allocLock.lock();
 			try {
 				SystemDefs.JavabaseDB.deallocate_page(pageId);
-			} catch (Exception e1) {
-				throw new DiskMgrException(e1, "BUFMGR::freepage failed");
+			} finally {
+				allocLock.unlock();
 			}
+		} catch (Exception e1) {
+			throw new DiskMgrException(e1, "BUFMGR::freepage failed");
 		}
 	}
 
@@ -397,29 +2065,35 @@ public class BufMgr extends AbstractBufMgr {
 			PageUnpinnedException, PagePinnedException, PageNotFoundException,
 			BufMgrException, IOException {
 
-		BufMgrFrameDesc frame = pageTable.get(pageId);
+		poolLock.lock();
+		try {
+			BufMgrFrameDesc frame = lookupWritten(pageId);
 
-		if (frame != null) {
-			if (frame.isDirty()) {
-				try {
-					SystemDefs.JavabaseDB.write_page(pageId, new Page(frame
-							.getData()));
-				} catch (Exception e) {
-					throw new BufMgrException(e,
-							"BufrMgr::flushPage: page cant be freed by diskmanager");
+			if (frame != null) {
+				boolean pinned = frame.getPinCount() > 0;
+				if (frame.isDirty()) {
+					// written with the lock let go, and marked clean first, so
+					// that a change made meanwhile by a caller that has the
+					// page pinned marks it dirty again
+					try {
+						writeUnlocked(frame, pageId.pid);
+					} catch (Exception e) {
+						throw new BufMgrException(e,
+								"BufrMgr::flushPage: page cant be freed by diskmanager");
+					}
 				}
-			}
 
-			frame.setDirtybit(false);
+				if (pinned) {
+					throw new PagePinnedException(null,
+							"BufrMgr::flushPage: page is still pinned");
+				}
 
-			if (frame.getPinCount() > 0) {
-				throw new PagePinnedException(null,
-						"BufrMgr::flushPage: page is still pinned");
+			} else {
+				throw new PageNotFoundException(null,
+						"BufrMgr::flushPage: page to be flushed not loaded");
 			}
-
-		} else {
-			throw new PageNotFoundException(null,
-					"BufrMgr::flushPage: page to be flushed not loaded");
+		} finally {
+			poolLock.unlock();
 		}
 	}
 
@@ -443,10 +2117,11 @@ public class BufMgr extends AbstractBufMgr {
 			PageUnpinnedException, PagePinnedException, PageNotFoundException,
 			BufMgrException, IOException {
 
-		for (Iterator<PageId> iterator = pageTable.keySet().iterator(); iterator
-				.hasNext();) {
-			PageId pageId = (PageId) iterator.next();
-			flushPage(pageId);
+		for (int i = 0; i < frameTable.length; i++) {
+			PageId pageId = frameTable[i].getPageNo();
+			if (pageId != null) {
+				flushPage(pageId);
+			}
 		}
 	}
 
@@ -467,10 +2142,7 @@ public class BufMgr extends AbstractBufMgr {
 	public int getNumUnpinnedBuffers() {
 		int unpinned = 0;
 		for (int i = 0; i < frameTable.length; i++) {
-			BufMgrFrameDesc frame = frameTable[i];
-			if (frame != null && frame.getPinCount() == 0) {
-				unpinned++;
-			} else if (frame == null) {
+			if (frameTable[i].getPinCount() == 0) {
 				unpinned++;
 			}
 		}
@@ -3,82 +3,441 @@ package bufmgr;
 import global.GlobalConst;
 import global.PageId;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Describes one frame of the buffer pool. There is one descriptor per frame
+ * for the life of the buffer manager; which page the frame holds, its pin
+ * count, dirty bit and usage count are packed into a single 64-bit word per
+ * frame, kept in an array shared by all descriptors of the pool:
+ *
+ * <pre>
+ *  bits  0-31  page number
+ *  bits 32-47  pin count
+ *  bits 48-54  usage count, raised by every pin up to 127
+ *  bit  56     dirty
+ *  bit  57     valid: the frame holds a page
+ *  bit  58     the page is being read in
+ *  bit  59     reading the page in failed
+ *  bit  60     the page is being written out without the pool lock
+ * </pre>
+ *
+ * Every change is a compare-and-set of the whole word, so a pin that checks
+ * the page number and raises the pin count cannot pin a frame that was given
+ * to another page in between, and anyone may read the state without a lock.
+ *
+ * The frame's bytes are either a byte array on the heap, which Page objects
+ * share, or a slice of an off-heap arena. An off-heap frame pinned through
+ * the Page interface is given a heap copy of its bytes while it stays
+ * pinned; the copy is written back and dropped when the last pin goes.
+ */
 public class BufMgrFrameDesc extends global.AbstractBufMgrFrameDesc implements
 		GlobalConst {
-	
-	int pinCount;
-	boolean dirtyBit;
-	PageId pageId;
-	private byte[] data;
-	private int frameNumber;
-	
-	BufMgrFrameDesc(PageId page, byte[] data, int frameNumber) {
+
+	static final long PID_MASK = 0xFFFFFFFFL;
+	static final int PIN_SHIFT = 32;
+	static final long PIN_ONE = 1L << PIN_SHIFT;
+	static final long PIN_MASK = 0xFFFFL << PIN_SHIFT;
+	static final int MAX_PIN_COUNT = 0xFFFF;
+	static final int USAGE_SHIFT = 48;
+	static final long USAGE_MASK = 0x7FL << USAGE_SHIFT;
+	static final int MAX_USAGE = 0x7F;
+	static final long DIRTY = 1L << 56;
+	static final long VALID = 1L << 57;
+	static final long IO_IN_PROGRESS = 1L << 58;
+	static final long IO_ERROR = 1L << 59;
+	static final long WRITING = 1L << 60;
+
+	private final AtomicLongArray state;
+	/** The bytes of a heap frame, or the heap copy of an off-heap frame. */
+	private volatile byte[] data;
+	/** The frame's memory: a slice of the arena, or a view of data. */
+	private final ByteBuffer memory;
+	private final boolean offHeap;
+	private final int frameNumber;
+
+	/**
+	 * Creates the descriptor of a heap frame; the frame starts out empty.
+	 *
+	 * @param state
+	 *            the state words of the pool, indexed by frame number.
+	 */
+	BufMgrFrameDesc(AtomicLongArray state, byte[] data, int frameNumber) {
 		super();
-		pinCount = 0;
-		dirtyBit = false;
-		pageId = new PageId(page.getPid());
+		this.state = state;
 		this.data = data;
+		this.memory = ByteBuffer.wrap(data);
+		this.offHeap = false;
 		this.frameNumber = frameNumber;
 	}
 
+	/**
+	 * Creates the descriptor of an off-heap frame; the frame starts out
+	 * empty.
+	 *
+	 * @param state
+	 *            the state words of the pool, indexed by frame number.
+	 * @param memory
+	 *            the frame's slice of the arena.
+	 */
+	BufMgrFrameDesc(AtomicLongArray state, ByteBuffer memory, int frameNumber) {
+		super();
+		this.state = state;
+		this.data = null;
+		this.memory = memory;
+		this.offHeap = true;
+		this.frameNumber = frameNumber;
+	}
+
+	static int pid(long word) {
+		return (int) (word & PID_MASK);
+	}
+
+	static int pinCount(long word) {
+		return (int) ((word & PIN_MASK) >>> PIN_SHIFT);
+	}
+
+	static int usage(long word) {
+		return (int) ((word & USAGE_MASK) >>> USAGE_SHIFT);
+	}
+
+	private static long addPin(long word) {
+		if (pinCount(word) == MAX_PIN_COUNT) {
+			throw new IllegalStateException(
+					"BufMgrFrameDesc::pin too many pins on one page");
+		}
+		word += PIN_ONE;
+		if (usage(word) < MAX_USAGE) {
+			word += 1L << USAGE_SHIFT;
+		}
+		return word;
+	}
+
+	/** @return the state word of the frame. */
+	long word() {
+		return state.get(frameNumber);
+	}
+
 	/**
 	 * Returns the pin count of a certain frame page.
-	 * 
+	 *
 	 * @return the pin count number.
 	 */
 	public int getPinCount() {
-		return (pinCount);
-	};
+		return pinCount(word());
+	}
 
 	/**
 	 * Increments the pin count of a certain frame page when the page is pinned.
-	 * 
+	 *
 	 * @return the incremented pin count.
 	 */
 	public int pin() {
-		System.out.println("BufMgrFrame::pin");
-		return (++pinCount);
+		while (true) {
+			long word = state.get(frameNumber);
+			long pinned = addPin(word);
+			if (state.compareAndSet(frameNumber, word, pinned)) {
+				return pinCount(pinned);
+			}
+		}
+	}
+
+	/**
+	 * Increments the pin count only if the frame holds page pid and the page
+	 * is already pinned. Such a pin never changes whether the frame is a
+	 * replacement candidate, so it needs no lock. The page may still be
+	 * being read in.
+	 *
+	 * @return false if the frame does not hold the page, it was not pinned
+	 *         or reading it in failed.
+	 */
+	boolean pinIfPinned(int pid) {
+		while (true) {
+			long word = state.get(frameNumber);
+			if ((word & (VALID | IO_ERROR)) != VALID || pid(word) != pid
+					|| pinCount(word) < 1) {
+				return false;
+			}
+			if (state.compareAndSet(frameNumber, word, addPin(word))) {
+				return true;
+			}
+		}
 	}
 
 	/**
 	 * Decrements the pin count of a frame when the page is unpinned. If the pin
 	 * count is equal to or less than zero, the pin count will be zero.
-	 * 
+	 *
 	 * @return the decremented pin count.
 	 */
 	public int unpin() {
-		System.out.println("BufMgrFrame::unpin");
-		if (pinCount > 0) {
-			--pinCount;
+		while (true) {
+			long word = state.get(frameNumber);
+			if (pinCount(word) == 0) {
+				return 0;
+			}
+			if (state.compareAndSet(frameNumber, word, word - PIN_ONE)) {
+				return pinCount(word) - 1;
+			}
+		}
+	}
+
+	/**
+	 * Decrements the pin count only if the frame holds page pid and the count
+	 * stays above zero, so that the frame does not become a replacement
+	 * candidate. The dirty bit is set in the same step.
+	 *
+	 * @return false if the frame does not hold the page or this would have
+	 *         been the last pin.
+	 */
+	boolean unpinIfShared(int pid, boolean dirty) {
+		while (true) {
+			long word = state.get(frameNumber);
+			if ((word & VALID) == 0 || pid(word) != pid || pinCount(word) < 2) {
+				return false;
+			}
+			long unpinned = word - PIN_ONE;
+			if (dirty) {
+				unpinned |= DIRTY;
+			}
+			if (state.compareAndSet(frameNumber, word, unpinned)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Makes the frame hold page pid, unpinned, clean and with no usage. Only
+	 * called with the buffer manager's lock held, on an unpinned frame.
+	 *
+	 * @param reading
+	 *            true if the page is about to be read in.
+	 */
+	void install(int pid, boolean reading) {
+		state.set(frameNumber, VALID | (reading ? IO_IN_PROGRESS : 0)
+				| (pid & PID_MASK));
+	}
+
+	/**
+	 * Marks the read started by install as finished.
+	 *
+	 * @param failed
+	 *            true if the page could not be read.
+	 */
+	void endRead(boolean failed) {
+		while (true) {
+			long word = state.get(frameNumber);
+			long updated = (word & ~IO_IN_PROGRESS) | (failed ? IO_ERROR : 0);
+			if (state.compareAndSet(frameNumber, word, updated)) {
+				return;
+			}
+		}
+	}
+
+	/** @return true if the page is still being read in. */
+	boolean isReading() {
+		return (word() & IO_IN_PROGRESS) != 0;
+	}
+
+	/**
+	 * Marks the frame as being written out, and clean, so that a pin that
+	 * dirties the page meanwhile leaves it dirty. Only called with the
+	 * buffer manager's lock held, on a frame that is not being written.
+	 */
+	void beginWrite() {
+		while (true) {
+			long word = state.get(frameNumber);
+			if (state.compareAndSet(frameNumber, word, (word | WRITING)
+					& ~DIRTY)) {
+				return;
+			}
 		}
-		
-		return (pinCount);
 	}
 
+	/**
+	 * Marks the write started by beginWrite as finished.
+	 *
+	 * @param failed
+	 *            true if the page could not be written; the frame is dirty
+	 *            again.
+	 */
+	void endWrite(boolean failed) {
+		while (true) {
+			long word = state.get(frameNumber);
+			long updated = (word & ~WRITING) | (failed ? DIRTY : 0);
+			if (state.compareAndSet(frameNumber, word, updated)) {
+				return;
+			}
+		}
+	}
+
+	/** @return true if the page is being written out. */
+	boolean isWriting() {
+		return (word() & WRITING) != 0;
+	}
+
+	/** @return true if reading the page in failed. */
+	boolean readFailed() {
+		return (word() & IO_ERROR) != 0;
+	}
+
+	/** Empties the frame. */
+	void invalidate() {
+		state.set(frameNumber, 0L);
+	}
+
+	/** @return true if the frame holds a page. */
+	public boolean isValid() {
+		return (word() & VALID) != 0;
+	}
+
+	/** @return true if the frame holds page pid. */
+	boolean holds(int pid) {
+		long word = word();
+		return (word & VALID) != 0 && pid(word) == pid;
+	}
+
+	/** @return the number of the page in the frame. */
+	public int getPid() {
+		return pid(word());
+	}
+
+	/** @return the page in the frame, or null if the frame is empty. */
 	public PageId getPageNo() {
-		return pageId;
+		long word = word();
+		if ((word & VALID) == 0) {
+			return null;
+		}
+		return new PageId(pid(word));
 	}
 
 	public boolean isDirty() {
-		return dirtyBit;
+		return (word() & DIRTY) != 0;
 	}
 
 	public void setDirtybit(boolean dirty) {
-		dirtyBit = dirty;
+		while (true) {
+			long word = state.get(frameNumber);
+			long updated = dirty ? word | DIRTY : word & ~DIRTY;
+			if (word == updated
+					|| state.compareAndSet(frameNumber, word, updated)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns how often the page was pinned since it was read in, less what
+	 * the replacer has taken off.
+	 *
+	 * @return the usage count, at most 127.
+	 */
+	public int getUsageCount() {
+		return usage(word());
+	}
+
+	/**
+	 * Sets the usage count. A pin made at the same time may be lost.
+	 *
+	 * @param usage
+	 *            the new count, between 0 and 127.
+	 */
+	public void setUsageCount(int usage) {
+		while (true) {
+			long word = state.get(frameNumber);
+			long updated = (word & ~USAGE_MASK)
+					| ((long) usage << USAGE_SHIFT & USAGE_MASK);
+			if (word == updated
+					|| state.compareAndSet(frameNumber, word, updated)) {
+				return;
+			}
+		}
 	}
 
 	public void setPincount(int pin) {
-		pinCount = pin;
+		while (true) {
+			long word = state.get(frameNumber);
+			long updated = (word & ~PIN_MASK)
+					| ((long) pin << PIN_SHIFT & PIN_MASK);
+			if (state.compareAndSet(frameNumber, word, updated)) {
+				return;
+			}
+		}
 	}
 
 	public void setPageNo(PageId pageToBringIn) {
-		pageId = pageToBringIn;
+		while (true) {
+			long word = state.get(frameNumber);
+			long updated = (word & ~PID_MASK) | (pageToBringIn.pid & PID_MASK);
+			if (state.compareAndSet(frameNumber, word, updated)) {
+				return;
+			}
+		}
 	}
 
+	/**
+	 * Returns the bytes of the frame as an array that Page objects can share.
+	 *
+	 * @return the array, or null for an off-heap frame that has no heap copy.
+	 */
 	public byte[] getData() {
 		return data;
 	}
 
+	/** @return the frame's own memory, which I/O may use directly. */
+	ByteBuffer memory() {
+		return memory;
+	}
+
+	/**
+	 * Returns a ByteBuffer over the bytes of the frame. It shares them with
+	 * any Page the frame was handed to.
+	 *
+	 * @return a new buffer, positioned at 0, with its own position and limit.
+	 */
+	public ByteBuffer view() {
+		byte[] heapCopy = data;
+		if (heapCopy != null) {
+			return ByteBuffer.wrap(heapCopy);
+		}
+		return memory.duplicate();
+	}
+
+	/** @return true if the frame lives in an off-heap arena. */
+	boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Gives an off-heap frame a heap copy of its bytes. Only called with the
+	 * buffer manager's lock held, on an unpinned frame.
+	 *
+	 * @param copy
+	 *            false if the bytes are about to be overwritten anyway.
+	 */
+	void attachHeapCopy(boolean copy) {
+		if (offHeap && data == null) {
+			byte[] heapCopy = new byte[MINIBASE_PAGESIZE];
+			if (copy) {
+				memory.get(0, heapCopy);
+			}
+			data = heapCopy;
+		}
+	}
+
+	/**
+	 * Writes an off-heap frame's heap copy back and drops it. Only called
+	 * with the buffer manager's lock held, once the frame is unpinned.
+	 */
+	void detachHeapCopy() {
+		byte[] heapCopy = data;
+		if (offHeap && heapCopy != null) {
+			memory.put(0, heapCopy);
+			data = null;
+		}
+	}
+
 	public int getFrameNumber() {
 		return frameNumber;
 	}
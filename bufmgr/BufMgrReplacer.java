@@ -4,6 +4,7 @@ import global.GlobalConst;
 import global.AbstractBufMgr;
 import global.AbstractBufMgrFrameDesc;
 import global.AbstractBufMgrReplacer;
+import global.PageId;
 
 import exceptions.BufferPoolExceededException;
 import exceptions.InvalidFrameNumberException;
@@ -72,6 +73,66 @@ public abstract class BufMgrReplacer extends AbstractBufMgrReplacer
 	abstract public int pick_victim() throws BufferPoolExceededException,
 			PagePinnedException;
 
+	/**
+	 * Tells the replacer that a page is about to be read into a frame. It is
+	 * called by pinPage on a miss, after pick_victim and before the frame is
+	 * pinned, while frameTable[frameNo] still describes the page being
+	 * replaced (or is not valid for an empty frame). Replacers that keep
+	 * per-page history override it; the default does nothing.
+	 *
+	 * @param frameNo
+	 *            frame number the page is read into.
+	 * @param pageId
+	 *            the page being brought in.
+	 */
+	public void load(int frameNo, PageId pageId) {
+	}
+
+	/**
+	 * Tells the replacer that the page in a frame is evicted ahead of time,
+	 * with no page to take its place yet. It is called after pick_victim,
+	 * while frameTable[frameNo] still describes the page. The buffer manager
+	 * keeps the empty frame for a later miss, so until load is called for it
+	 * the replacer must not pick it again; it is handed back with free if it
+	 * is not used. Replacers that remember replaced pages override it to
+	 * remember this one too; the default treats the frame as pinned.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 */
+	public void evict(int frameNo) throws InvalidFrameNumberException {
+		pin(frameNo);
+	}
+
+	/**
+	 * Tells the replacer that the page in a frame was read ahead and is
+	 * unpinned again without having been used. The replacer should give it
+	 * the lowest priority it has, so that a wrong guess is evicted before
+	 * pages in use. The buffer manager does not evict a page read ahead and
+	 * not used yet to read ahead others, so the next window cannot push it
+	 * out. The default does nothing, which suits a replacer, such as MRU,
+	 * that already takes the page just unpinned first.
+	 *
+	 * @param frameNo
+	 *            frame number of the page, unpinned.
+	 */
+	public void demote(int frameNo) {
+	}
+
+	/**
+	 * Returns the frame the replacer looks at first when it next picks a
+	 * victim. Frames from there on are the likeliest victims, so the
+	 * background writer cleans them first. The default is frame 0.
+	 *
+	 * @return a frame number.
+	 */
+	public int sweepStart() {
+		return 0;
+	}
+
 	/** Retruns the name of the replacer algorithm. */
 	abstract public String name();
 
@@ -0,0 +1,114 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.PageId;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A page store that reads and writes the database file with positional
+ * FileChannel calls, straight into and out of the frames. Positional calls
+ * leave the channel's position alone, so they need no lock. A run of pages
+ * is read with one scattering read; that goes from the channel's position,
+ * so runs are read one at a time.
+ */
+public class ChannelPageStore implements PageStore, GlobalConst {
+
+	private final Path path;
+	private volatile FileChannel channel;
+	/** Held while the channel's position is set and a run is read. */
+	private final Object runLock = new Object();
+
+	/**
+	 * Opens the database file.
+	 *
+	 * @param fname
+	 *            the name of the database file.
+	 */
+	public ChannelPageStore(String fname) throws IOException {
+		path = Paths.get(fname);
+		channel = open();
+	}
+
+	private FileChannel open() throws IOException {
+		return FileChannel.open(path, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	public void read(PageId pageId, ByteBuffer buffer) throws IOException {
+		FileChannel file = channel;
+		long position = (long) pageId.pid * MINIBASE_PAGESIZE;
+		try {
+			while (buffer.hasRemaining()) {
+				if (file.read(buffer, position + buffer.position()) < 0) {
+					throw new EOFException("ChannelPageStore::read: page "
+							+ pageId.pid + " is past the end of the file");
+				}
+			}
+		} catch (ClosedByInterruptException e) {
+			reopen(file);
+			throw e;
+		}
+	}
+
+	public void readRun(PageId firstPage, ByteBuffer[] buffers)
+			throws IOException {
+		FileChannel file = channel;
+		long length = (long) buffers.length * MINIBASE_PAGESIZE;
+		try {
+			synchronized (runLock) {
+				file.position((long) firstPage.pid * MINIBASE_PAGESIZE);
+				for (long done = 0; done < length;) {
+					long n = file.read(buffers);
+					if (n < 0) {
+						throw new EOFException("ChannelPageStore::readRun: page "
+								+ (firstPage.pid + done / MINIBASE_PAGESIZE)
+								+ " is past the end of the file");
+					}
+					done += n;
+				}
+			}
+		} catch (ClosedByInterruptException e) {
+			reopen(file);
+			throw e;
+		}
+	}
+
+	public void write(PageId pageId, ByteBuffer buffer) throws IOException {
+		FileChannel file = channel;
+		long position = (long) pageId.pid * MINIBASE_PAGESIZE;
+		try {
+			while (buffer.hasRemaining()) {
+				file.write(buffer, position + buffer.position());
+			}
+		} catch (ClosedByInterruptException e) {
+			reopen(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens the file again after an interrupted thread's I/O closed it for
+	 * every thread, unless someone did so already.
+	 */
+	private synchronized void reopen(FileChannel closed) throws IOException {
+		if (channel == closed) {
+			channel = open();
+		}
+	}
+
+	/** The disk manager sized the file when the database was created. */
+	public void allocate(PageId firstPage, int howmany) {
+	}
+
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+}
@@ -6,38 +6,53 @@ import exceptions.PagePinnedException;
 import exceptions.PageUnpinnedException;
 import global.AbstractBufMgr;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
- * This class should implement a Clock replacement strategy.
+ * This class implements the Clock replacement strategy. Every pin and unpin
+ * sets the frame's reference bit; the hand clears it on its first pass and
+ * takes the frame on the next one if it has not been referenced in between.
+ * The reference bits are packed 64 to a long.
  */
 public class Clock extends BufMgrReplacer {
 
-	List<Boolean> referenceFlag = new LinkedList<Boolean>();
+	/** One reference bit per frame. */
+	long[] referenceBits;
 	int hand = -1;
-	boolean initialized = false;
 
 	public Clock() {
 
 	}
 
 	public Clock(AbstractBufMgr b) {
-		setBufferManager(b);
+		setBufferManager((BufMgr) b);
 	}
 
-	private void init() {
-		if (!initialized) {
-			for (int i = 0; i < mgr.getNumBuffers(); i++) {
-				referenceFlag.add(new Boolean(true));
-			}
-			initialized = true;
-		}
+	/**
+	 * Sets the buffer manager and clears every reference bit.
+	 *
+	 * @param mgrArg
+	 *            the buffer manage to be assigned to.
+	 */
+	public void setBufferManager(BufMgr mgrArg) {
+		super.setBufferManager(mgrArg);
+		referenceBits = new long[(mgr.getNumBuffers() + 63) >>> 6];
+		hand = -1;
+	}
+
+	static boolean testBit(long[] bits, int frameNo) {
+		return (bits[frameNo >>> 6] & (1L << frameNo)) != 0;
+	}
+
+	static void setBit(long[] bits, int frameNo) {
+		bits[frameNo >>> 6] |= 1L << frameNo;
+	}
+
+	static void clearBit(long[] bits, int frameNo) {
+		bits[frameNo >>> 6] &= ~(1L << frameNo);
 	}
 
 	/**
 	 * Pins a candidate page in the buffer pool.
-	 * 
+	 *
 	 * @param frameNo
 	 *            frame number of the page.
 	 * @throws InvalidFrameNumberException
@@ -47,22 +62,18 @@ public class Clock extends BufMgrReplacer {
 	 */
 	public void pin(int frameNo) throws InvalidFrameNumberException {
 
-		init();
-		// find the frame and remove it
-		if (frameNo < 0 || frameNo > mgr.getNumBuffers()) {
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
 			throw new InvalidFrameNumberException(null,
 					"CLOCK::pin Invalid frame Number");
 		}
 
-		if (this.state_bit[frameNo] == Available
-				|| this.state_bit[frameNo] == Referenced) {
-			this.state_bit[frameNo] = Pinned;
-		}
+		this.state_bit[frameNo] = Pinned;
+		setBit(referenceBits, frameNo);
 	}
 
 	/**
 	 * Unpins a page in the buffer pool.
-	 * 
+	 *
 	 * @param frameNo
 	 *            frame number of the page.
 	 * @throws InvalidFrameNumberException
@@ -75,56 +86,72 @@ public class Clock extends BufMgrReplacer {
 	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
 			PageUnpinnedException {
 
-		init();
-
-		// find the frame and remove it
-		if (frameNo < 0 || frameNo > mgr.getNumBuffers()) {
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
 			throw new InvalidFrameNumberException(null,
 					"CLOCK::pin Invalid frame Number");
 		}
 
 		this.state_bit[frameNo] = Referenced;
+		setBit(referenceBits, frameNo);
 		return true;
 	}
 
 	/**
 	 * Frees and unpins a page in the buffer pool.
-	 * 
+	 *
 	 * @param frameNo
 	 *            frame number of the page.
 	 * @throws PagePinnedException
 	 *             if the page is pinned.
 	 */
 	public void free(int frameNo) throws PagePinnedException {
-		init();
 		this.state_bit[frameNo] = Available;
+		clearBit(referenceBits, frameNo);
 	}
 
 	/** Must pin the returned frame. */
 	public int pick_victim() throws BufferPoolExceededException,
 			PagePinnedException {
 
-		init();
-		for (int i = 0; i < 2 * mgr.getNumBuffers(); i++) {
+		int numBuffers = mgr.getNumBuffers();
+
+		// the first turn clears every reference bit it passes, so an unpinned
+		// frame is always found before the end of the second one
+		for (int i = 0; i < 2 * numBuffers; i++) {
 
-			hand = (hand + 1) % mgr.getNumBuffers();
-			if (this.state_bit[hand] == Available) {
+			if (++hand == numBuffers) {
+				hand = 0;
+			}
+			int state = this.state_bit[hand];
+			if (state == Available) {
 				return hand;
-			} else if (this.state_bit[hand] == Referenced
-					&& this.frameTable[hand].getPinCount() == 0) {
-				if (referenceFlag.get(hand).booleanValue() == false) {
-					return (hand);
-				} else {
-					referenceFlag.set(hand, new Boolean(false));
+			} else if (state == Referenced) {
+				int word = hand >>> 6;
+				long bit = 1L << hand;
+				if ((referenceBits[word] & bit) == 0) {
+					return hand;
 				}
+				referenceBits[word] &= ~bit;
 			}
-
 		}
 
 		throw new BufferPoolExceededException(null,
 				"CLOCK:pick_victim buffer pool exceeded");
 	}
 
+	/**
+	 * Clears the reference bit of a page read ahead, so that the hand takes
+	 * it on its next pass unless it is used by then.
+	 */
+	public void demote(int frameNo) {
+		clearBit(referenceBits, frameNo);
+	}
+
+	/** @return the frame after the hand. */
+	public int sweepStart() {
+		return hand + 1 == mgr.getNumBuffers() ? 0 : hand + 1;
+	}
+
 	/** Retruns the name of the replacer algorithm. */
 	public String name() {
 		return "CLOCK";
@@ -132,14 +159,12 @@ public class Clock extends BufMgrReplacer {
 
 	/**
 	 * Counts the unpinned frames (free frames) in the buffer pool.
-	 * 
+	 *
 	 * @returns the total number of unpinned frames in the buffer pool.
 	 */
 	public int getNumUnpinnedBuffers() {
-		init();
-
 		int count = 0;
-		for (int i = 0; i < this.frameTable.length; i++) {
+		for (int i = 0; i < this.state_bit.length; i++) {
 			if (this.state_bit[i] != Pinned) {
 				count++;
 			}
@@ -147,4 +172,4 @@ public class Clock extends BufMgrReplacer {
 		return count;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,287 @@
+package bufmgr;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+import global.AbstractBufMgr;
+import global.PageId;
+
+/**
+ * This class implements the CLOCK-Pro replacement strategy of Jiang, Chen and
+ * Zhang on top of the Clock frame sweep. Resident pages are hot or cold, and a
+ * cold page read in starts a test period. A cold page referenced during its
+ * test period has a short reuse distance and is turned hot; a hot page not
+ * referenced since the hot hand last passed it is turned cold. Only cold pages
+ * are evicted, so a scan, whose pages are never referenced again, cannot push
+ * the hot pages out.
+ *
+ * A cold page evicted during its test period is remembered in a bounded ring
+ * of non-resident page numbers. If it is read in again before the ring wraps
+ * around it, it comes back hot and the cold target grows; if the ring
+ * overwrites it, its test period has run out and the cold target shrinks.
+ *
+ * As in Clock, a hit only sets the frame's reference bit. The cold hand is
+ * Clock's hand and the hot hand sweeps the same frame array; the per-frame hot
+ * and test flags are bitsets like the reference bits.
+ */
+public class ClockPro extends Clock {
+
+	long[] hotBits;
+	long[] testBits;
+	int hotCount;
+	/** Number of resident cold frames the hands aim for. */
+	int coldTarget;
+	int handHot = -1;
+
+	/** Page numbers of cold pages evicted during their test period. */
+	int[] nonResident;
+	int nonResidentPos;
+	IntHashMap nonResidentIndex;
+
+	public ClockPro() {
+	}
+
+	public ClockPro(AbstractBufMgr b) {
+		setBufferManager((BufMgr) b);
+	}
+
+	/**
+	 * Sets the buffer manager; every frame starts empty and cold.
+	 *
+	 * @param mgrArg
+	 *            the buffer manage to be assigned to.
+	 */
+	public void setBufferManager(BufMgr mgrArg) {
+		super.setBufferManager(mgrArg);
+		int numBuffers = mgr.getNumBuffers();
+		hotBits = new long[referenceBits.length];
+		testBits = new long[referenceBits.length];
+		hotCount = 0;
+		coldTarget = Math.max(1, numBuffers / 100);
+		handHot = -1;
+		nonResident = new int[numBuffers];
+		for (int i = 0; i < numBuffers; i++) {
+			nonResident[i] = IntHashMap.NONE;
+		}
+		nonResidentPos = 0;
+		nonResidentIndex = new IntHashMap(numBuffers);
+	}
+
+	/**
+	 * Remembers the outgoing page if it is still in its test period, and
+	 * makes the incoming page hot if it was remembered, cold otherwise.
+	 *
+	 * @param frameNo
+	 *            frame number the page is read into.
+	 * @param pageId
+	 *            the page being brought in.
+	 */
+	public void load(int frameNo, PageId pageId) {
+		BufMgrFrameDesc old = frameTable[frameNo];
+		if (old.isValid() && testBit(testBits, frameNo)) {
+			rememberNonResident(old.getPid());
+		}
+		if (testBit(hotBits, frameNo)) {
+			clearBit(hotBits, frameNo);
+			hotCount--;
+		}
+		clearBit(referenceBits, frameNo);
+		clearBit(testBits, frameNo);
+
+		int slot = nonResidentIndex.remove(pageId.pid);
+		if (slot != IntHashMap.NONE) {
+			// re-read within its test period: the cold target is too small
+			nonResident[slot] = IntHashMap.NONE;
+			if (coldTarget < mgr.getNumBuffers() - 1) {
+				coldTarget++;
+			}
+			makeHot(frameNo);
+		} else {
+			setBit(testBits, frameNo);
+		}
+
+		// the frame is pinned next; that pin is not a second reference
+		this.state_bit[frameNo] = Pinned;
+	}
+
+	private void rememberNonResident(int pid) {
+		int expired = nonResident[nonResidentPos];
+		if (expired != IntHashMap.NONE) {
+			// its test period ran out without a reference
+			nonResidentIndex.remove(expired);
+			if (coldTarget > 1) {
+				coldTarget--;
+			}
+		}
+		nonResident[nonResidentPos] = pid;
+		nonResidentIndex.put(pid, nonResidentPos);
+		if (++nonResidentPos == nonResident.length) {
+			nonResidentPos = 0;
+		}
+	}
+
+	private void makeHot(int frameNo) {
+		clearBit(testBits, frameNo);
+		setBit(hotBits, frameNo);
+		hotCount++;
+		while (hotCount > mgr.getNumBuffers() - coldTarget && demoteHot()) {
+		}
+	}
+
+	/**
+	 * Runs the hot hand until it turns one hot page cold. Hot pages
+	 * referenced since the last pass lose their reference bit instead, and
+	 * cold pages passed end their test period.
+	 *
+	 * @return false if no hot page could be demoted.
+	 */
+	private boolean demoteHot() {
+		int numBuffers = mgr.getNumBuffers();
+		for (int i = 0; i < 2 * numBuffers; i++) {
+			if (++handHot == numBuffers) {
+				handHot = 0;
+			}
+			if (testBit(hotBits, handHot)) {
+				if (testBit(referenceBits, handHot)) {
+					clearBit(referenceBits, handHot);
+				} else {
+					clearBit(hotBits, handHot);
+					hotCount--;
+					return true;
+				}
+			} else {
+				clearBit(testBits, handHot);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"CLOCKPRO::pin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] != Pinned) {
+			setBit(referenceBits, frameNo);
+			this.state_bit[frameNo] = Pinned;
+		}
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"CLOCKPRO::unpin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] == Pinned) {
+			this.state_bit[frameNo] = Referenced;
+		}
+		return true;
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		super.free(frameNo);
+		if (testBit(hotBits, frameNo)) {
+			clearBit(hotBits, frameNo);
+			hotCount--;
+		}
+		clearBit(testBits, frameNo);
+	}
+
+	/**
+	 * Remembers the evicted page as non-resident if it is in its test
+	 * period, as a replacement would, and keeps the hands off the frame
+	 * until it is loaded or freed.
+	 */
+	public void evict(int frameNo) {
+		BufMgrFrameDesc old = frameTable[frameNo];
+		if (old.isValid() && testBit(testBits, frameNo)) {
+			rememberNonResident(old.getPid());
+		}
+		if (testBit(hotBits, frameNo)) {
+			clearBit(hotBits, frameNo);
+			hotCount--;
+		}
+		clearBit(referenceBits, frameNo);
+		clearBit(testBits, frameNo);
+		this.state_bit[frameNo] = Pinned;
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+
+		int numBuffers = mgr.getNumBuffers();
+
+		for (int i = 0; i < 3 * numBuffers; i++) {
+
+			if (i > 0 && i % numBuffers == 0) {
+				// a whole turn without a cold victim: make one
+				demoteHot();
+			}
+			if (++hand == numBuffers) {
+				hand = 0;
+			}
+			int state = this.state_bit[hand];
+			if (state == Available) {
+				return hand;
+			}
+			if (state == Pinned || testBit(hotBits, hand)) {
+				continue;
+			}
+			if (testBit(referenceBits, hand)) {
+				clearBit(referenceBits, hand);
+				if (testBit(testBits, hand)) {
+					makeHot(hand);
+				} else {
+					setBit(testBits, hand);
+				}
+				continue;
+			}
+			return hand;
+		}
+
+		throw new BufferPoolExceededException(null,
+				"CLOCKPRO:pick_victim buffer pool exceeded");
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name() {
+		return "CLOCK-Pro";
+	}
+}
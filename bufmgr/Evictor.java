@@ -0,0 +1,43 @@
+package bufmgr;
+
+/**
+ * A thread that keeps a buffer manager's list of free frames filled, so
+ * that a miss takes an empty frame instead of running the replacer. It
+ * sleeps until a miss leaves fewer free frames than the low watermark, and
+ * then evicts pages, a few at a time under the pool lock, until there are
+ * as many as the high watermark. A dirty victim is written with the lock
+ * let go, so misses and pins go on meanwhile.
+ */
+class Evictor implements Runnable {
+
+	private final BufMgr mgr;
+	private final Thread thread;
+	/** Set once the evictor is to stop; read by the buffer manager too. */
+	volatile boolean stopping = false;
+
+	Evictor(BufMgr mgr) {
+		this.mgr = mgr;
+		thread = new Thread(this, "BufMgr evictor");
+		thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops the evictor and waits for it to finish the eviction in progress.
+	 * Called without the pool lock.
+	 */
+	void stop() throws InterruptedException {
+		stopping = true;
+		mgr.wakeEvictor();
+		thread.join();
+	}
+
+	public void run() {
+		while (!stopping) {
+			mgr.refillFreeFrames(this);
+		}
+	}
+}
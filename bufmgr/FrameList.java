@@ -0,0 +1,164 @@
+package bufmgr;
+
+/**
+ * An intrusive doubly linked list of frame numbers. The links are kept in two
+ * int arrays indexed by frame number, so every operation, including removal
+ * of an arbitrary frame, is O(1) and allocates nothing.
+ *
+ * A frame can be a member of at most one position in a given list.
+ */
+class FrameList {
+
+	/** Marks the end of the list. */
+	static final int NIL = -1;
+
+	/** Marks a frame that is not in the list. */
+	private static final int UNLINKED = -2;
+
+	private final int[] prev;
+	private final int[] next;
+	private int head = NIL;
+	private int tail = NIL;
+	private int size = 0;
+
+	/**
+	 * Creates an empty list able to hold frame numbers 0 to capacity - 1.
+	 *
+	 * @param capacity
+	 *            number of frames in the buffer pool.
+	 */
+	FrameList(int capacity) {
+		prev = new int[capacity];
+		next = new int[capacity];
+		clear();
+	}
+
+	/** Removes all frames from the list. */
+	void clear() {
+		for (int i = 0; i < prev.length; i++) {
+			prev[i] = UNLINKED;
+			next[i] = UNLINKED;
+		}
+		head = NIL;
+		tail = NIL;
+		size = 0;
+	}
+
+	boolean contains(int frameNo) {
+		return prev[frameNo] != UNLINKED;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** @return the first frame, or NIL if the list is empty. */
+	int first() {
+		return head;
+	}
+
+	/** @return the last frame, or NIL if the list is empty. */
+	int last() {
+		return tail;
+	}
+
+	/** @return the frame after frameNo, or NIL if frameNo is the last one. */
+	int next(int frameNo) {
+		return next[frameNo];
+	}
+
+	/** @return the frame before frameNo, or NIL if frameNo is the first one. */
+	int prev(int frameNo) {
+		return prev[frameNo];
+	}
+
+	/** Links frameNo at the head of the list. It must not be in the list. */
+	void addFirst(int frameNo) {
+		prev[frameNo] = NIL;
+		next[frameNo] = head;
+		if (head == NIL) {
+			tail = frameNo;
+		} else {
+			prev[head] = frameNo;
+		}
+		head = frameNo;
+		size++;
+	}
+
+	/** Links frameNo at the tail of the list. It must not be in the list. */
+	void addLast(int frameNo) {
+		next[frameNo] = NIL;
+		prev[frameNo] = tail;
+		if (tail == NIL) {
+			head = frameNo;
+		} else {
+			next[tail] = frameNo;
+		}
+		tail = frameNo;
+		size++;
+	}
+
+	/**
+	 * Links frameNo just before the frame before, which must be in the list.
+	 * frameNo must not be in the list.
+	 */
+	void addBefore(int frameNo, int before) {
+		int p = prev[before];
+		prev[frameNo] = p;
+		next[frameNo] = before;
+		prev[before] = frameNo;
+		if (p == NIL) {
+			head = frameNo;
+		} else {
+			next[p] = frameNo;
+		}
+		size++;
+	}
+
+	/**
+	 * Unlinks frameNo from the list.
+	 *
+	 * @return false if frameNo was not in the list.
+	 */
+	boolean remove(int frameNo) {
+		if (prev[frameNo] == UNLINKED) {
+			return false;
+		}
+		int p = prev[frameNo];
+		int n = next[frameNo];
+		if (p == NIL) {
+			head = n;
+		} else {
+			next[p] = n;
+		}
+		if (n == NIL) {
+			tail = p;
+		} else {
+			prev[n] = p;
+		}
+		prev[frameNo] = UNLINKED;
+		next[frameNo] = UNLINKED;
+		size--;
+		return true;
+	}
+
+	/** Moves frameNo to the tail of the list, linking it if necessary. */
+	void moveToLast(int frameNo) {
+		if (tail != frameNo) {
+			remove(frameNo);
+			addLast(frameNo);
+		}
+	}
+
+	/** Moves frameNo to the head of the list, linking it if necessary. */
+	void moveToFirst(int frameNo) {
+		if (head != frameNo) {
+			remove(frameNo);
+			addFirst(frameNo);
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package bufmgr;
+
+import java.util.concurrent.locks.Condition;
+
+/**
+ * A thread waiting in pinPage for a frame. Waiters queue up in the order
+ * they began to wait, and a frame unpinned while any wait is handed to the
+ * first of them: it is emptied, taken out of the replacer and left here
+ * until the waiter reads its page into it. Guarded by the buffer manager's
+ * pool lock.
+ */
+class FrameWaiter {
+
+	static final int NO_FRAME = -1;
+
+	/** Signalled when a frame is handed over, or worth trying for. */
+	final Condition woken;
+	/** The empty frame handed over and not yet used, or NO_FRAME. */
+	int frameNo = NO_FRAME;
+
+	FrameWaiter(Condition woken) {
+		this.woken = woken;
+	}
+}
@@ -0,0 +1,139 @@
+package bufmgr;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+import global.AbstractBufMgr;
+
+/**
+ * This class implements the generalized Clock (GCLOCK) replacement strategy,
+ * the usage-count sweep of PostgreSQL's buffer manager. Instead of a single
+ * reference bit each frame has a small usage counter that every pin raises,
+ * up to a maximum. The hand lowers the counter of each unpinned frame it
+ * passes and takes the first one it finds at zero, so a page pinned many
+ * times survives several turns of the hand while a page read once is gone
+ * after one.
+ *
+ * The counter is the usage count kept in the frame's state word (see
+ * BufMgrFrameDesc), which counts every pin, including those the buffer
+ * manager makes without calling the replacer. The hand treats anything above
+ * the maximum as the maximum.
+ *
+ * The replacer built by name reads the maximum count from the system property
+ * bufmgr.GClock.maxUsage (default 5).
+ */
+public class GClock extends Clock {
+
+	int maxUsage;
+
+	public GClock() {
+		this(Integer.getInteger("bufmgr.GClock.maxUsage", 5).intValue());
+	}
+
+	/**
+	 * Creates a GCLOCK replacer.
+	 *
+	 * @param maxUsage
+	 *            the largest value a usage counter reaches, at most 127.
+	 */
+	public GClock(int maxUsage) {
+		if (maxUsage < 1 || maxUsage > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"GClock: maxUsage must be between 1 and 127");
+		}
+		this.maxUsage = maxUsage;
+	}
+
+	public GClock(AbstractBufMgr b) {
+		this();
+		setBufferManager((BufMgr) b);
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"GCLOCK::pin Invalid frame Number");
+		}
+
+		this.state_bit[frameNo] = Pinned;
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"GCLOCK::unpin Invalid frame Number");
+		}
+
+		this.state_bit[frameNo] = Referenced;
+		return true;
+	}
+
+	/**
+	 * Clears the usage count of a page read ahead, so that the hand takes it
+	 * on its next pass unless it is used by then.
+	 */
+	public void demote(int frameNo) {
+		frameTable[frameNo].setUsageCount(0);
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+
+		int numBuffers = mgr.getNumBuffers();
+
+		// every turn lowers each unpinned counter by one, so an unpinned
+		// frame reaches zero within maxUsage + 1 turns
+		for (int i = 0; i < (maxUsage + 1) * numBuffers; i++) {
+
+			if (++hand == numBuffers) {
+				hand = 0;
+			}
+			int state = this.state_bit[hand];
+			if (state == Available) {
+				return hand;
+			} else if (state == Referenced) {
+				BufMgrFrameDesc frame = frameTable[hand];
+				int usage = Math.min(frame.getUsageCount(), maxUsage);
+				if (usage == 0) {
+					return hand;
+				}
+				frame.setUsageCount(usage - 1);
+			}
+		}
+
+		throw new BufferPoolExceededException(null,
+				"GCLOCK:pick_victim buffer pool exceeded");
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name() {
+		return "GCLOCK";
+	}
+}
@@ -0,0 +1,94 @@
+package bufmgr;
+
+/**
+ * A bounded list of page numbers of pages that are no longer in the buffer
+ * pool, kept in insertion (or recency) order. Replacers use it to remember
+ * recently evicted pages so that a quick re-reference can be recognised.
+ * Entries live in fixed slots linked by a FrameList and are found through an
+ * IntHashMap, so every operation is O(1) and allocation-free.
+ */
+class GhostList {
+
+	private final int capacity;
+	private final int[] pageNo;
+	private final FrameList order;
+	private final IntHashMap slots;
+	private final int[] freeSlots;
+	private int numFree;
+
+	/**
+	 * Creates an empty ghost list.
+	 *
+	 * @param capacity
+	 *            maximum number of page numbers kept.
+	 */
+	GhostList(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		pageNo = new int[this.capacity];
+		order = new FrameList(this.capacity);
+		slots = new IntHashMap(this.capacity);
+		freeSlots = new int[this.capacity];
+		for (int i = 0; i < this.capacity; i++) {
+			freeSlots[i] = this.capacity - 1 - i;
+		}
+		numFree = this.capacity;
+	}
+
+	int size() {
+		return order.size();
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	boolean contains(int pid) {
+		return slots.containsKey(pid);
+	}
+
+	/**
+	 * Adds pid as the newest entry, dropping the oldest one if the list is
+	 * full. A pid already present is moved to the newest position.
+	 */
+	void add(int pid) {
+		int slot = slots.get(pid);
+		if (slot != IntHashMap.NONE) {
+			order.moveToLast(slot);
+			return;
+		}
+		if (numFree == 0) {
+			removeOldest();
+		}
+		slot = freeSlots[--numFree];
+		pageNo[slot] = pid;
+		slots.put(pid, slot);
+		order.addLast(slot);
+	}
+
+	/** @return false if pid was not in the list. */
+	boolean remove(int pid) {
+		int slot = slots.remove(pid);
+		if (slot == IntHashMap.NONE) {
+			return false;
+		}
+		order.remove(slot);
+		freeSlots[numFree++] = slot;
+		return true;
+	}
+
+	/**
+	 * Drops the oldest entry.
+	 *
+	 * @return the page number dropped, or IntHashMap.NONE if the list is
+	 *         empty.
+	 */
+	int removeOldest() {
+		int slot = order.first();
+		if (slot == FrameList.NIL) {
+			return IntHashMap.NONE;
+		}
+		int pid = pageNo[slot];
+		remove(pid);
+		return pid;
+	}
+}
@@ -0,0 +1,137 @@
+package bufmgr;
+
+/**
+ * A map from non-negative int keys to int values, using open addressing with
+ * linear probing over two int arrays. Deletion shifts the following entries
+ * back instead of leaving tombstones, so lookups never degrade. The table does
+ * not grow; it is sized once for the largest number of entries it must hold,
+ * and put, get and remove allocate nothing.
+ */
+class IntHashMap {
+
+	/** Returned by get when the key is absent; also marks an empty slot. */
+	static final int NONE = -1;
+
+	private final int[] keys;
+	private final int[] values;
+	private final int mask;
+	private int size = 0;
+
+	/**
+	 * Creates a map able to hold maxEntries entries at a load factor of at
+	 * most one half.
+	 *
+	 * @param maxEntries
+	 *            the largest number of entries the map will hold.
+	 */
+	IntHashMap(int maxEntries) {
+		int capacity = 2;
+		while (capacity < 2 * maxEntries) {
+			capacity <<= 1;
+		}
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		clear();
+	}
+
+	void clear() {
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = NONE;
+		}
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/** Spreads the key bits so that consecutive page ids do not cluster. */
+	private int slot(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/** @return the value for key, or NONE if key is absent. */
+	int get(int key) {
+		int i = slot(key);
+		while (true) {
+			int k = keys[i];
+			if (k == key) {
+				return values[i];
+			}
+			if (k == NONE) {
+				return NONE;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	boolean containsKey(int key) {
+		return get(key) != NONE;
+	}
+
+	/**
+	 * Maps key to value, replacing any previous value.
+	 *
+	 * @throws IllegalStateException
+	 *             if the table is full.
+	 */
+	void put(int key, int value) {
+		int i = slot(key);
+		while (true) {
+			int k = keys[i];
+			if (k == key) {
+				values[i] = value;
+				return;
+			}
+			if (k == NONE) {
+				if (size == mask) {
+					throw new IllegalStateException("IntHashMap: table full");
+				}
+				keys[i] = key;
+				values[i] = value;
+				size++;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/** @return the value that was mapped to key, or NONE if key was absent. */
+	int remove(int key) {
+		int i = slot(key);
+		while (true) {
+			int k = keys[i];
+			if (k == NONE) {
+				return NONE;
+			}
+			if (k == key) {
+				break;
+			}
+			i = (i + 1) & mask;
+		}
+		int value = values[i];
+
+		// shift back every following entry that would no longer be reachable
+		int hole = i;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			int k = keys[j];
+			if (k == NONE) {
+				break;
+			}
+			int home = slot(k);
+			// move the entry unless its home lies cyclically in (hole, j]
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = k;
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = NONE;
+		size--;
+		return value;
+	}
+}
@@ -0,0 +1,349 @@
+package bufmgr;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+import global.AbstractBufMgr;
+import global.PageId;
+
+/**
+ * This class implements the LIRS replacement strategy of Jiang and Zhang.
+ * Pages are ranked by inter-reference recency: LIR pages, re-referenced
+ * within a short distance, hold all but one percent of the frames; the rest
+ * hold resident HIR pages, kept in the queue Q, and every victim comes from
+ * Q. The stack S orders LIR pages, resident HIR pages and recently evicted
+ * (non-resident) HIR pages by recency, with an LIR page always at the bottom.
+ * A HIR page referenced while it is still in S has a shorter reuse distance
+ * than the bottom LIR page and swaps roles with it.
+ *
+ * Because only the small HIR part of the pool is cycled through, a loop over
+ * slightly more pages than there are frames keeps hitting in the LIR part
+ * instead of missing on every reference as under LRU or Clock.
+ *
+ * S entries are slots: slot f below the number of buffers is frame f, and the
+ * slots above it describe non-resident pages. There are only as many
+ * non-resident slots as frames; when they run out, the page that was evicted
+ * longest ago is forgotten.
+ */
+public class LIRS extends BufMgrReplacer {
+
+	FrameList emptyList;
+	/** The LIRS stack; first is the bottom, last is the top. */
+	FrameList stack;
+	/** Resident HIR frames, next victim first. */
+	FrameList hirQueue;
+	boolean[] lir;
+	int lirCount;
+	int lirTarget;
+
+	/** Non-resident slots in the order their pages were evicted. */
+	FrameList evicted;
+	int[] slotPage;
+	IntHashMap nonResident;
+	int[] freeSlots;
+	int numFreeSlots;
+
+	int numUnpinned;
+
+	public LIRS() {
+	}
+
+	public LIRS(AbstractBufMgr b) {
+		setBufferManager((BufMgr) b);
+	}
+
+	/**
+	 * Sets the buffer manager and puts every frame on the empty list.
+	 *
+	 * @param mgrArg
+	 *            the buffer manage to be assigned to.
+	 */
+	public void setBufferManager(BufMgr mgrArg) {
+		super.setBufferManager(mgrArg);
+		int numBuffers = mgr.getNumBuffers();
+		emptyList = new FrameList(numBuffers);
+		stack = new FrameList(2 * numBuffers);
+		hirQueue = new FrameList(numBuffers);
+		lir = new boolean[numBuffers];
+		lirCount = 0;
+		lirTarget = Math.max(1, numBuffers - Math.max(1, numBuffers / 100));
+
+		evicted = new FrameList(2 * numBuffers);
+		slotPage = new int[2 * numBuffers];
+		nonResident = new IntHashMap(numBuffers);
+		freeSlots = new int[numBuffers];
+		numFreeSlots = numBuffers;
+		for (int i = 0; i < numBuffers; i++) {
+			emptyList.addLast(i);
+			freeSlots[i] = 2 * numBuffers - 1 - i;
+		}
+		numUnpinned = numBuffers;
+	}
+
+	/**
+	 * Turns the outgoing page into a non-resident entry in S, and places the
+	 * incoming page as an LIR page if it had one, as a resident HIR page
+	 * otherwise.
+	 *
+	 * @param frameNo
+	 *            frame number the page is read into.
+	 * @param pageId
+	 *            the page being brought in.
+	 */
+	public void load(int frameNo, PageId pageId) {
+		retire(frameNo);
+
+		int slot = nonResident.get(pageId.pid);
+		if (slot != IntHashMap.NONE) {
+			// its reuse distance beat the bottom LIR page's recency
+			releaseSlot(slot);
+			stack.addLast(frameNo);
+			makeLir(frameNo);
+		} else if (lirCount < lirTarget) {
+			stack.addLast(frameNo);
+			lir[frameNo] = true;
+			lirCount++;
+		} else {
+			stack.addLast(frameNo);
+			hirQueue.addLast(frameNo);
+		}
+		prune();
+
+		// the frame is pinned next; that pin is not a second reference
+		if (this.state_bit[frameNo] != Pinned) {
+			this.state_bit[frameNo] = Pinned;
+			numUnpinned--;
+		}
+	}
+
+	private int allocateSlot(int pid) {
+		if (numFreeSlots == 0) {
+			releaseSlot(evicted.first());
+		}
+		int slot = freeSlots[--numFreeSlots];
+		slotPage[slot] = pid;
+		nonResident.put(pid, slot);
+		evicted.addLast(slot);
+		return slot;
+	}
+
+	private void releaseSlot(int slot) {
+		nonResident.remove(slotPage[slot]);
+		evicted.remove(slot);
+		stack.remove(slot);
+		freeSlots[numFreeSlots++] = slot;
+	}
+
+	/**
+	 * Makes a frame LIR and, if that leaves too many LIR pages, turns the
+	 * bottom LIR page into a resident HIR page.
+	 */
+	private void makeLir(int frameNo) {
+		lir[frameNo] = true;
+		lirCount++;
+		if (lirCount > lirTarget) {
+			int bottom = stack.first();
+			lir[bottom] = false;
+			lirCount--;
+			stack.remove(bottom);
+			hirQueue.addLast(bottom);
+		}
+	}
+
+	/** Removes HIR entries from the bottom of S until an LIR page is there. */
+	private void prune() {
+		int numBuffers = mgr.getNumBuffers();
+		int bottom = stack.first();
+		while (bottom != FrameList.NIL && (bottom >= numBuffers || !lir[bottom])) {
+			if (bottom >= numBuffers) {
+				releaseSlot(bottom);
+			} else {
+				stack.remove(bottom);
+			}
+			bottom = stack.first();
+		}
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"LIRS::pin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] == Pinned) {
+			return;
+		}
+		if (lir[frameNo]) {
+			stack.moveToLast(frameNo);
+		} else if (stack.contains(frameNo)) {
+			// a resident HIR page re-referenced while still in S
+			stack.moveToLast(frameNo);
+			hirQueue.remove(frameNo);
+			makeLir(frameNo);
+		} else {
+			stack.addLast(frameNo);
+			hirQueue.moveToLast(frameNo);
+		}
+		prune();
+		this.state_bit[frameNo] = Pinned;
+		numUnpinned--;
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"LIRS::unpin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] == Pinned) {
+			this.state_bit[frameNo] = Referenced;
+			numUnpinned++;
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the page in a frame out of the stack and Q, leaving a
+	 * non-resident entry in its place in the stack.
+	 */
+	private void retire(int frameNo) {
+		BufMgrFrameDesc old = frameTable[frameNo];
+		emptyList.remove(frameNo);
+		hirQueue.remove(frameNo);
+		if (stack.contains(frameNo)) {
+			if (old.isValid()) {
+				int slot = allocateSlot(old.getPid());
+				stack.addBefore(slot, frameNo);
+			}
+			stack.remove(frameNo);
+		}
+		if (lir[frameNo]) {
+			// an LIR page was taken because Q had no unpinned frame
+			lir[frameNo] = false;
+			lirCount--;
+		}
+		prune();
+	}
+
+	/**
+	 * Leaves a non-resident entry for the evicted page, as a replacement
+	 * would, and keeps the frame out of the stack and Q until it is loaded
+	 * or freed.
+	 */
+	public void evict(int frameNo) {
+		retire(frameNo);
+		if (this.state_bit[frameNo] != Pinned) {
+			this.state_bit[frameNo] = Pinned;
+			numUnpinned--;
+		}
+	}
+
+	/**
+	 * Makes a page read ahead a resident HIR page at the head of Q, outside
+	 * S, so that it is the next victim and is not turned LIR by its first
+	 * reference.
+	 */
+	public void demote(int frameNo) {
+		if (lir[frameNo]) {
+			lir[frameNo] = false;
+			lirCount--;
+		}
+		stack.remove(frameNo);
+		prune();
+		hirQueue.moveToFirst(frameNo);
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		// the page is deallocated, so it leaves no non-resident entry
+		stack.remove(frameNo);
+		hirQueue.remove(frameNo);
+		if (lir[frameNo]) {
+			lir[frameNo] = false;
+			lirCount--;
+		}
+		prune();
+		emptyList.moveToFirst(frameNo);
+		if (this.state_bit[frameNo] == Pinned) {
+			numUnpinned++;
+		}
+		this.state_bit[frameNo] = Available;
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+
+		if (!emptyList.isEmpty()) {
+			return emptyList.first();
+		}
+
+		int frameNo = hirQueue.first();
+		while (frameNo != FrameList.NIL && this.state_bit[frameNo] == Pinned) {
+			frameNo = hirQueue.next(frameNo);
+		}
+		if (frameNo != FrameList.NIL) {
+			return frameNo;
+		}
+
+		// every resident HIR page is pinned: take the least recent LIR page
+		int numBuffers = mgr.getNumBuffers();
+		frameNo = stack.first();
+		while (frameNo != FrameList.NIL
+				&& (frameNo >= numBuffers || !lir[frameNo] || this.state_bit[frameNo] == Pinned)) {
+			frameNo = stack.next(frameNo);
+		}
+		if (frameNo == FrameList.NIL) {
+			throw new BufferPoolExceededException(null,
+					"LIRS:pick_victim buffer pool exceeded");
+		}
+		return frameNo;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name() {
+		return "LIRS";
+	}
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return numUnpinned;
+	}
+}
@@ -0,0 +1,147 @@
+package bufmgr;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+import global.AbstractBufMgr;
+
+/**
+ * This class implements the LRU replacement strategy. Unpinned frames are kept
+ * in a single list ordered from least to most recently used, with empty frames
+ * at the head so that they are handed out first. The list links live in int
+ * arrays indexed by frame number, so all operations are O(1).
+ */
+public class LRU extends BufMgrReplacer {
+
+	/** Replacement candidates, least recently used first. */
+	FrameList lruList;
+
+	public LRU() {
+	}
+
+	public LRU(AbstractBufMgr b) {
+		setBufferManager((BufMgr) b);
+	}
+
+	/**
+	 * Sets the buffer manager and puts every frame on the list as an empty
+	 * frame.
+	 *
+	 * @param mgrArg
+	 *            the buffer manage to be assigned to.
+	 */
+	public void setBufferManager(BufMgr mgrArg) {
+		super.setBufferManager(mgrArg);
+		lruList = new FrameList(mgr.getNumBuffers());
+		for (int i = 0; i < mgr.getNumBuffers(); i++) {
+			lruList.addLast(i);
+		}
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"LRU::pin Invalid frame Number");
+		}
+
+		// a pinned frame is no longer a replacement candidate
+		lruList.remove(frameNo);
+		this.state_bit[frameNo] = Pinned;
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"LRU::unpin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] == Pinned) {
+			this.state_bit[frameNo] = Referenced;
+			lruList.addLast(frameNo);
+		}
+		return true;
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		// empty frames are reused before any cached page is evicted
+		lruList.moveToFirst(frameNo);
+		this.state_bit[frameNo] = Available;
+	}
+
+	/**
+	 * Moves a page read ahead to the victim end of the list, behind the empty
+	 * frames, so that it goes before every page that was used.
+	 */
+	public void demote(int frameNo) {
+		lruList.remove(frameNo);
+		int before = lruList.first();
+		while (before != FrameList.NIL && this.state_bit[before] == Available) {
+			before = lruList.next(before);
+		}
+		if (before == FrameList.NIL) {
+			lruList.addLast(frameNo);
+		} else {
+			lruList.addBefore(frameNo, before);
+		}
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+
+		int victim = lruList.first();
+		if (victim == FrameList.NIL) {
+			throw new BufferPoolExceededException(null,
+					"LRU:pick_victim buffer pool exceeded");
+		}
+		return victim;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name() {
+		return "LRU";
+	}
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return lruList.size();
+	}
+}
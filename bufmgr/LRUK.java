@@ -0,0 +1,329 @@
+package bufmgr;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+import global.AbstractBufMgr;
+import global.PageId;
+
+/**
+ * This class implements the LRU-K replacement strategy of O'Neil, O'Neil and
+ * Weikum. Each frame remembers the times of the last K uncorrelated references
+ * to its page, and the victim is the unpinned frame whose K-th most recent
+ * reference is the oldest. Pages referenced fewer than K times go first, in
+ * LRU order.
+ *
+ * Time is a counter advanced by every pin. A reference that comes while the
+ * page is still pinned, or no more than the correlated reference period after
+ * the previous one, is correlated with it and does not count as a new
+ * reference. A frame referenced within the period is only evicted if nothing
+ * older is available.
+ *
+ * The replacer built by name reads K and the period from the system properties
+ * bufmgr.LRUK.K (default 2) and bufmgr.LRUK.CRP (default 0).
+ */
+public class LRUK extends BufMgrReplacer {
+
+	/** Reference time of an empty frame; sorts before every real time. */
+	private static final long EMPTY = -1;
+
+	int k;
+	long correlatedPeriod;
+
+	/** Logical clock, advanced by every pin. */
+	long now = 0;
+
+	/** hist[f * k + i] is the time of the (i + 1)-th last reference to f. */
+	long[] hist;
+	/** Time of the last reference to the frame, correlated or not. */
+	long[] last;
+
+	/** Binary min-heap of unpinned frames and each frame's slot in it. */
+	int[] heap;
+	int[] heapPos;
+	int heapSize = 0;
+	/** Frames set aside while pick_victim skips correlated candidates. */
+	int[] skipped;
+
+	public LRUK() {
+		this(Integer.getInteger("bufmgr.LRUK.K", 2).intValue(), Long.getLong(
+				"bufmgr.LRUK.CRP", 0).longValue());
+	}
+
+	/**
+	 * Creates an LRU-K replacer.
+	 *
+	 * @param k
+	 *            number of references remembered per frame.
+	 * @param correlatedPeriod
+	 *            number of pins after a reference during which another
+	 *            reference to the same page is correlated with it.
+	 */
+	public LRUK(int k, long correlatedPeriod) {
+		if (k < 1) {
+			throw new IllegalArgumentException("LRUK: K must be at least 1");
+		}
+		this.k = k;
+		this.correlatedPeriod = correlatedPeriod;
+	}
+
+	public LRUK(AbstractBufMgr b) {
+		this();
+		setBufferManager((BufMgr) b);
+	}
+
+	/**
+	 * Sets the buffer manager and puts every frame in the heap as an empty
+	 * frame.
+	 *
+	 * @param mgrArg
+	 *            the buffer manage to be assigned to.
+	 */
+	public void setBufferManager(BufMgr mgrArg) {
+		super.setBufferManager(mgrArg);
+		int numBuffers = mgr.getNumBuffers();
+		hist = new long[numBuffers * k];
+		last = new long[numBuffers];
+		heap = new int[numBuffers];
+		heapPos = new int[numBuffers];
+		skipped = new int[numBuffers];
+		heapSize = 0;
+		for (int i = 0; i < numBuffers; i++) {
+			clearHistory(i, EMPTY);
+			heapPos[i] = -1;
+			heapInsert(i);
+		}
+	}
+
+	private void clearHistory(int frameNo, long time) {
+		for (int i = frameNo * k; i < (frameNo + 1) * k; i++) {
+			hist[i] = time;
+		}
+		last[frameNo] = time;
+	}
+
+	/**
+	 * Forgets the history of the page leaving the frame.
+	 *
+	 * @param frameNo
+	 *            frame number the page is read into.
+	 * @param pageId
+	 *            the page being brought in.
+	 */
+	public void load(int frameNo, PageId pageId) {
+		heapRemove(frameNo);
+		clearHistory(frameNo, 0);
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool and records the reference.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"LRUK::pin Invalid frame Number");
+		}
+
+		now++;
+		int base = frameNo * k;
+		if (hist[base] <= 0) {
+			// first reference since the page was loaded
+			clearHistory(frameNo, 0);
+			hist[base] = now;
+			last[frameNo] = now;
+		} else if (this.state_bit[frameNo] != Pinned
+				&& now - last[frameNo] > correlatedPeriod) {
+			// a new, uncorrelated reference: shift the history, closing the
+			// correlated period of the previous reference
+			long correlated = last[frameNo] - hist[base];
+			for (int i = k - 1; i > 0; i--) {
+				long t = hist[base + i - 1];
+				hist[base + i] = t > 0 ? t + correlated : t;
+			}
+			hist[base] = now;
+			last[frameNo] = now;
+		} else {
+			last[frameNo] = now;
+		}
+
+		heapRemove(frameNo);
+		this.state_bit[frameNo] = Pinned;
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"LRUK::unpin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] == Pinned) {
+			// the page was in use until now
+			last[frameNo] = now;
+			this.state_bit[frameNo] = Referenced;
+			heapInsert(frameNo);
+		}
+		return true;
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		heapRemove(frameNo);
+		clearHistory(frameNo, EMPTY);
+		this.state_bit[frameNo] = Available;
+		heapInsert(frameNo);
+	}
+
+	/**
+	 * Forgets the reference the read made, so that a page read ahead has no
+	 * history and goes before every page that was used.
+	 */
+	public void demote(int frameNo) {
+		heapRemove(frameNo);
+		clearHistory(frameNo, 0);
+		heapInsert(frameNo);
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+
+		if (heapSize == 0) {
+			throw new BufferPoolExceededException(null,
+					"LRUK:pick_victim buffer pool exceeded");
+		}
+
+		// only frames referenced within the last correlatedPeriod ticks are
+		// skipped here
+		int victim = -1;
+		int numSkipped = 0;
+		while (heapSize > 0) {
+			int frameNo = heap[0];
+			if (this.state_bit[frameNo] == Available
+					|| now - last[frameNo] > correlatedPeriod) {
+				victim = frameNo;
+				break;
+			}
+			heapRemove(frameNo);
+			skipped[numSkipped++] = frameNo;
+		}
+		for (int i = 0; i < numSkipped; i++) {
+			heapInsert(skipped[i]);
+		}
+		if (victim == -1) {
+			// every candidate is still correlated; take the oldest
+			victim = heap[0];
+		}
+		return victim;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name() {
+		return "LRU-" + k;
+	}
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return heapSize;
+	}
+
+	/** Orders by K-th last reference, then by last reference. */
+	private boolean before(int a, int b) {
+		long ka = hist[a * k + k - 1];
+		long kb = hist[b * k + k - 1];
+		if (ka != kb) {
+			return ka < kb;
+		}
+		return hist[a * k] < hist[b * k];
+	}
+
+	private void heapInsert(int frameNo) {
+		heap[heapSize] = frameNo;
+		heapPos[frameNo] = heapSize;
+		siftUp(heapSize++);
+	}
+
+	private void heapRemove(int frameNo) {
+		int pos = heapPos[frameNo];
+		if (pos < 0) {
+			return;
+		}
+		heapPos[frameNo] = -1;
+		int lastFrame = heap[--heapSize];
+		if (pos != heapSize) {
+			heap[pos] = lastFrame;
+			heapPos[lastFrame] = pos;
+			siftDown(pos);
+			siftUp(heapPos[lastFrame]);
+		}
+	}
+
+	private void siftUp(int pos) {
+		int frameNo = heap[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!before(frameNo, heap[parent])) {
+				break;
+			}
+			heap[pos] = heap[parent];
+			heapPos[heap[pos]] = pos;
+			pos = parent;
+		}
+		heap[pos] = frameNo;
+		heapPos[frameNo] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int frameNo = heap[pos];
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], frameNo)) {
+				break;
+			}
+			heap[pos] = heap[child];
+			heapPos[heap[pos]] = pos;
+			pos = child;
+		}
+		heap[pos] = frameNo;
+		heapPos[frameNo] = pos;
+	}
+}
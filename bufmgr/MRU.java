@@ -6,28 +6,41 @@ import exceptions.PagePinnedException;
 import exceptions.PageUnpinnedException;
 import global.AbstractBufMgr;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
- * This class should implement a Clock replacement strategy.
+ * This class implements the MRU replacement strategy. Empty frames are handed
+ * out first; after that the most recently unpinned frame is the victim. Both
+ * lists are FrameLists, so removing a frame by number is O(1).
  */
 public class MRU extends BufMgrReplacer {
 
-	List<Integer> emptyList = new LinkedList<Integer>();
-	List<Integer> evictionList = new LinkedList<Integer>();
-	boolean is_init = false;
+	FrameList emptyList;
+	FrameList evictionList;
 
 	public MRU() {
 	}
 
 	public MRU(AbstractBufMgr b) {
-		setBufferManager(b);
+		setBufferManager((BufMgr) b);
+	}
+
+	/**
+	 * Sets the buffer manager and puts every frame on the empty list.
+	 *
+	 * @param mgrArg
+	 *            the buffer manage to be assigned to.
+	 */
+	public void setBufferManager(BufMgr mgrArg) {
+		super.setBufferManager(mgrArg);
+		emptyList = new FrameList(mgr.getNumBuffers());
+		evictionList = new FrameList(mgr.getNumBuffers());
+		for (int i = 0; i < mgr.getNumBuffers(); i++) {
+			emptyList.addLast(i);
+		}
 	}
 
 	/**
 	 * Pins a candidate page in the buffer pool.
-	 * 
+	 *
 	 * @param frameNo
 	 *            frame number of the page.
 	 * @throws InvalidFrameNumberException
@@ -37,30 +50,24 @@ public class MRU extends BufMgrReplacer {
 	 */
 	public void pin(int frameNo) throws InvalidFrameNumberException {
 
-		init();
-
 		// find the frame and remove it
-		if (frameNo < 0 || frameNo > mgr.getNumBuffers()) {
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
 			throw new InvalidFrameNumberException(null,
 					"MRU::pin Invalid frame Number");
 		}
-		// No need to remove from anyList bcoz
-		// this function is called from PinPage
-		// if Page already exists in buffer then buffer is not in any list
-		// else if a victim is chosen ..then buffer is removed from the
-		// appropriate list
-		// in the pick_victim function
+		// pick_victim leaves the victim in its list, so both a chosen
+		// victim and a cached frame that is pinned again are unlinked here
 		if (this.state_bit[frameNo] == Available) {
-			emptyList.remove(new Integer(frameNo));
-		} else if(this.state_bit[frameNo] == Referenced) {
-			evictionList.remove(new Integer(frameNo));
+			emptyList.remove(frameNo);
+		} else if (this.state_bit[frameNo] == Referenced) {
+			evictionList.remove(frameNo);
 		}
 		this.state_bit[frameNo] = Pinned;
 	}
 
 	/**
 	 * Unpins a page in the buffer pool.
-	 * 
+	 *
 	 * @param frameNo
 	 *            frame number of the page.
 	 * @throws InvalidFrameNumberException
@@ -73,24 +80,22 @@ public class MRU extends BufMgrReplacer {
 	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
 			PageUnpinnedException {
 
-		init();
-
 		// find the frame and remove it
-		if (frameNo < 0 || frameNo > mgr.getNumBuffers()) {
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
 			throw new InvalidFrameNumberException(null,
 					"MRU::pin Invalid frame Number");
 		}
 
 		if (this.state_bit[frameNo] == Pinned) {
 			this.state_bit[frameNo] = Referenced;
-			evictionList.add(0, new Integer(frameNo));
+			evictionList.addFirst(frameNo);
 		}
 		return true;
 	}
 
 	/**
 	 * Frees and unpins a page in the buffer pool.
-	 * 
+	 *
 	 * @param frameNo
 	 *            frame number of the page.
 	 * @throws PagePinnedException
@@ -98,14 +103,12 @@ public class MRU extends BufMgrReplacer {
 	 */
 	public void free(int frameNo) throws PagePinnedException {
 
-		init();
-
 		// Page must be already in the evictionList
 		if (this.state_bit[frameNo] == Referenced) {
-			evictionList.remove(new Integer(frameNo));
+			evictionList.remove(frameNo);
 		}
-		
-		emptyList.add(0, new Integer(frameNo));
+
+		emptyList.moveToFirst(frameNo);
 		this.state_bit[frameNo] = Available;
 	}
 
@@ -113,41 +116,27 @@ public class MRU extends BufMgrReplacer {
 	public int pick_victim() throws BufferPoolExceededException,
 			PagePinnedException {
 
-		int victim;
-		init();
-
-		if (emptyList.size() > 0) {
-			victim = emptyList.remove(0).intValue();
-		} else if (evictionList.size() > 0) {
-			victim = evictionList.remove(0).intValue();
+		if (!emptyList.isEmpty()) {
+			return emptyList.first();
+		} else if (!evictionList.isEmpty()) {
+			return evictionList.first();
 		} else {
 			throw new BufferPoolExceededException(null,
 					"MRU:pic_victim buffer pool exceeded");
 		}
-		return victim;
 	}
 
 	/** Retruns the name of the replacer algorithm. */
 	public String name() {
-		init();
 		return "MRU";
 	}
 
 	/**
 	 * Counts the unpinned frames (free frames) in the buffer pool.
-	 * 
+	 *
 	 * @returns the total number of unpinned frames in the buffer pool.
 	 */
 	public int getNumUnpinnedBuffers() {
 		return (evictionList.size() + emptyList.size());
 	}
-
-	public void init() {
-		if (!is_init) {
-			for (int i = 0; i < mgr.getNumBuffers(); i++) {
-				emptyList.add(new Integer(i));
-			}
-			is_init = true;
-		}
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.PageId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A page store that maps the database file into memory, one chunk of pages
+ * at a time as pages in it are first used. Reading a page is then a copy
+ * from the operating system's page cache, with no system call once the chunk
+ * is mapped; writing one is a copy into it, written to disk by the operating
+ * system and at the latest when the store is closed. Mapping a chunk past the
+ * end of the file grows the file.
+ *
+ * A mapping is only released when the garbage collector collects it, so
+ * the file cannot be deleted on some systems while a store is open or soon
+ * after it is closed.
+ */
+public class MappedPageStore implements PageStore, GlobalConst {
+
+	/** Pages in one mapped chunk. */
+	public static final int CHUNK_PAGES = 1024;
+
+	private final FileChannel channel;
+	/** The chunks mapped so far, indexed by page number / CHUNK_PAGES. */
+	private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+	private boolean closed = false;
+
+	/**
+	 * Opens the database file. Nothing is mapped until a page is used.
+	 *
+	 * @param fname
+	 *            the name of the database file.
+	 */
+	public MappedPageStore(String fname) throws IOException {
+		channel = FileChannel.open(Paths.get(fname), StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	/** @return the chunk holding a page, mapping it first if need be. */
+	private MappedByteBuffer chunk(int pid) throws IOException {
+		int index = pid / CHUNK_PAGES;
+		MappedByteBuffer[] mapped = chunks;
+		if (index < mapped.length && mapped[index] != null) {
+			return mapped[index];
+		}
+		return map(index);
+	}
+
+	private synchronized MappedByteBuffer map(int index) throws IOException {
+		if (closed) {
+			throw new IOException("MappedPageStore: store is closed");
+		}
+		MappedByteBuffer[] mapped = chunks;
+		if (index >= mapped.length) {
+			MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(index + 1,
+					mapped.length * 2)];
+			System.arraycopy(mapped, 0, grown, 0, mapped.length);
+			mapped = grown;
+		}
+		if (mapped[index] == null) {
+			long size = (long) CHUNK_PAGES * MINIBASE_PAGESIZE;
+			mapped[index] = channel.map(FileChannel.MapMode.READ_WRITE, index
+					* size, size);
+		}
+		chunks = mapped;
+		return mapped[index];
+	}
+
+	private static int offset(int pid) {
+		return (pid % CHUNK_PAGES) * MINIBASE_PAGESIZE;
+	}
+
+	public void read(PageId pageId, ByteBuffer buffer) throws IOException {
+		buffer.put(0, chunk(pageId.pid), offset(pageId.pid), MINIBASE_PAGESIZE);
+	}
+
+	public void write(PageId pageId, ByteBuffer buffer) throws IOException {
+		chunk(pageId.pid).put(offset(pageId.pid), buffer, 0, MINIBASE_PAGESIZE);
+	}
+
+	/** Maps the chunks of the new pages, growing the file to hold them. */
+	public void allocate(PageId firstPage, int howmany) throws IOException {
+		int last = firstPage.pid + howmany - 1;
+		for (int i = firstPage.pid / CHUNK_PAGES; i <= last / CHUNK_PAGES; i++) {
+			chunk(i * CHUNK_PAGES);
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		MappedByteBuffer[] mapped = chunks;
+		for (int i = 0; i < mapped.length; i++) {
+			if (mapped[i] != null) {
+				mapped[i].force();
+			}
+		}
+		chunks = new MappedByteBuffer[0];
+		channel.close();
+	}
+}
@@ -0,0 +1,203 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared/exclusive latches on the frames of the buffer pool. Each frame's
+ * latch is one int:
+ *
+ * <pre>
+ *  bits  0-29  number of shared holders
+ *  bit  30     held exclusively
+ *  bit  31     some thread is waiting for it
+ * </pre>
+ *
+ * A latch is taken and released with a compare-and-set. A thread that has to
+ * wait parks on one of a fixed number of conditions shared by many frames, so
+ * there is no lock object per frame. Latches are not reentrant, and a thread
+ * holding a shared latch cannot upgrade it.
+ *
+ * Each frame also has a version for optimistic readers, in the manner of a
+ * seqlock: it is odd while the frame is latched exclusively and goes up by
+ * one when the latch is taken and again when it is released. It also goes
+ * up by two when a page is put in the frame or unpinned dirty by a caller
+ * that pinned it without a latch. A reader that saw the same even version
+ * before and after reading the frame, and found no such pin at the end,
+ * read it while nobody was changing it.
+ */
+class PageLatches {
+
+	private static final int SHARED_MASK = (1 << 30) - 1;
+	private static final int EXCLUSIVE = 1 << 30;
+	private static final int WAITERS = 1 << 31;
+	private static final int NUM_STRIPES = 64;
+
+	private final AtomicIntegerArray latch;
+	private final AtomicLongArray version;
+	/** Pins taken without a latch, per frame. */
+	private final AtomicIntegerArray unlatchedPins;
+	private final ReentrantLock[] stripeLock = new ReentrantLock[NUM_STRIPES];
+	private final Condition[] released = new Condition[NUM_STRIPES];
+
+	/**
+	 * Creates an unlatched latch for every frame.
+	 *
+	 * @param numBuffers
+	 *            number of frames in the buffer pool.
+	 */
+	PageLatches(int numBuffers) {
+		latch = new AtomicIntegerArray(numBuffers);
+		version = new AtomicLongArray(numBuffers);
+		unlatchedPins = new AtomicIntegerArray(numBuffers);
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			stripeLock[i] = new ReentrantLock();
+			released[i] = stripeLock[i].newCondition();
+		}
+	}
+
+	/** @return true if the latch was taken. */
+	private boolean tryAcquire(int frameNo, boolean exclusive) {
+		while (true) {
+			int word = latch.get(frameNo);
+			int updated;
+			if (exclusive) {
+				if ((word & (EXCLUSIVE | SHARED_MASK)) != 0) {
+					return false;
+				}
+				updated = word | EXCLUSIVE;
+			} else {
+				if ((word & EXCLUSIVE) != 0 || (word & SHARED_MASK) == SHARED_MASK) {
+					return false;
+				}
+				updated = word + 1;
+			}
+			if (latch.compareAndSet(frameNo, word, updated)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes the latch of a frame, waiting as long as another thread holds it
+	 * in a conflicting mode.
+	 *
+	 * @param exclusive
+	 *            true for exclusive mode, false for shared mode.
+	 */
+	void acquire(int frameNo, boolean exclusive) {
+		if (!tryAcquire(frameNo, exclusive)) {
+			waitFor(frameNo, exclusive);
+		}
+		if (exclusive) {
+			version.incrementAndGet(frameNo);
+		}
+	}
+
+	private void waitFor(int frameNo, boolean exclusive) {
+		int stripe = frameNo & (NUM_STRIPES - 1);
+		stripeLock[stripe].lock();
+		try {
+			while (!tryAcquire(frameNo, exclusive)) {
+				// flag the wait before sleeping; a release made before the
+				// flag is seen makes the loop try again instead
+				int word = latch.get(frameNo);
+				boolean blocked = exclusive ? (word & (EXCLUSIVE | SHARED_MASK)) != 0
+						: (word & EXCLUSIVE) != 0;
+				if (blocked
+						&& ((word & WAITERS) != 0 || latch.compareAndSet(frameNo,
+								word, word | WAITERS))) {
+					released[stripe].awaitUninterruptibly();
+				}
+			}
+		} finally {
+			stripeLock[stripe].unlock();
+		}
+	}
+
+	/**
+	 * Releases the latch of a frame.
+	 *
+	 * @param exclusive
+	 *            the mode the latch was taken in.
+	 * @throws IllegalMonitorStateException
+	 *             if the latch is not held in that mode.
+	 */
+	void release(int frameNo, boolean exclusive) {
+		if (exclusive && (latch.get(frameNo) & EXCLUSIVE) != 0) {
+			version.incrementAndGet(frameNo);
+		}
+		int word;
+		int updated;
+		do {
+			word = latch.get(frameNo);
+			if (exclusive) {
+				if ((word & EXCLUSIVE) == 0) {
+					throw new IllegalMonitorStateException(
+							"PageLatches::release frame not latched exclusively");
+				}
+				updated = 0;
+			} else {
+				if ((word & SHARED_MASK) == 0) {
+					throw new IllegalMonitorStateException(
+							"PageLatches::release frame not latched shared");
+				}
+				updated = word - 1;
+				if ((updated & SHARED_MASK) == 0) {
+					updated = 0;
+				}
+			}
+		} while (!latch.compareAndSet(frameNo, word, updated));
+
+		// waiters are only woken once the latch is free
+		if ((word & WAITERS) != 0 && updated == 0) {
+			int stripe = frameNo & (NUM_STRIPES - 1);
+			stripeLock[stripe].lock();
+			try {
+				released[stripe].signalAll();
+			} finally {
+				stripeLock[stripe].unlock();
+			}
+		}
+	}
+
+	/**
+	 * Returns the frame's version for an optimistic read.
+	 *
+	 * @return the version; odd if the frame is latched exclusively.
+	 */
+	long version(int frameNo) {
+		return version.get(frameNo);
+	}
+
+	/** Records a pin taken without a latch, which may change the page. */
+	void pinnedUnlatched(int frameNo) {
+		unlatchedPins.incrementAndGet(frameNo);
+	}
+
+	/**
+	 * Records that a pin taken without a latch is dropped, moving the
+	 * version on first if the page was changed.
+	 */
+	void unpinnedUnlatched(int frameNo, boolean dirty) {
+		if (dirty) {
+			version.addAndGet(frameNo, 2);
+		}
+		unlatchedPins.getAndUpdate(frameNo, n -> n > 0 ? n - 1 : 0);
+	}
+
+	/** @return the number of pins of the frame taken without a latch. */
+	int unlatchedPins(int frameNo) {
+		return unlatchedPins.get(frameNo);
+	}
+
+	/**
+	 * Moves the version on without latching, for a change that readers must
+	 * not miss but that nobody needs to be kept out of.
+	 */
+	void advanceVersion(int frameNo) {
+		version.addAndGet(frameNo, 2);
+	}
+}
@@ -0,0 +1,61 @@
+package bufmgr;
+
+import global.PageId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where a buffer manager reads pages from and writes them to, in place of
+ * the disk manager. A page store only moves page images; the disk manager
+ * still allocates and deallocates pages, and the buffer manager checks that
+ * a page number is in the database before using it.
+ *
+ * Reads and writes of different pages may be made at the same time by
+ * different threads.
+ */
+public interface PageStore {
+
+	/**
+	 * Reads a page into a frame.
+	 *
+	 * @param buffer
+	 *            the frame, exactly one page long, positioned at 0.
+	 */
+	void read(PageId pageId, ByteBuffer buffer) throws IOException;
+
+	/**
+	 * Reads a run of consecutive pages into frames, the first page into the
+	 * first frame. Stores that can read the run at once override this; by
+	 * default each page is read on its own.
+	 *
+	 * @param buffers
+	 *            the frames, each exactly one page long, positioned at 0.
+	 */
+	default void readRun(PageId firstPage, ByteBuffer[] buffers)
+			throws IOException {
+		for (int i = 0; i < buffers.length; i++) {
+			read(new PageId(firstPage.pid + i), buffers[i]);
+		}
+	}
+
+	/**
+	 * Writes a frame to a page.
+	 *
+	 * @param buffer
+	 *            the frame, exactly one page long, positioned at 0.
+	 */
+	void write(PageId pageId, ByteBuffer buffer) throws IOException;
+
+	/**
+	 * Tells the store that the disk manager allocated a run of pages, which
+	 * are about to be written.
+	 */
+	void allocate(PageId firstPage, int howmany) throws IOException;
+
+	/**
+	 * Makes every page written so far durable and releases the store. Closing
+	 * a store twice does nothing.
+	 */
+	void close() throws IOException;
+}
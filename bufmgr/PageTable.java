@@ -0,0 +1,208 @@
+package bufmgr;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The buffer manager's page table: a map from page number to the number of the
+ * frame holding that page. It is split into segments, each an open-addressing
+ * table with linear probing whose keys and values are interleaved in a single
+ * int array, so a lookup hashes and compares plain ints and neither a lookup
+ * nor an update allocates anything.
+ *
+ * Each segment has its own StampedLock. Lookups are optimistic reads that are
+ * validated afterwards and only fall back to the read lock if a writer got in
+ * the way, so threads looking up pages never write to a shared cache line.
+ * Updates take the segment's write lock. A segment doubles its table if it
+ * becomes more than half full.
+ */
+class PageTable {
+
+	/** Returned by get and remove when the page is not in the table. */
+	static final int NONE = -1;
+
+	private static final int NUM_SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[NUM_SEGMENTS];
+
+	/**
+	 * Creates a page table sized for a buffer pool.
+	 *
+	 * @param numBuffers
+	 *            number of frames in the buffer pool.
+	 */
+	PageTable(int numBuffers) {
+		int capacity = 8;
+		while (capacity < 4 * numBuffers / NUM_SEGMENTS) {
+			capacity <<= 1;
+		}
+		for (int i = 0; i < NUM_SEGMENTS; i++) {
+			segments[i] = new Segment(capacity);
+		}
+	}
+
+	private static int hash(int pid) {
+		int h = pid * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private Segment segmentFor(int h) {
+		return segments[(h >>> 28) & (NUM_SEGMENTS - 1)];
+	}
+
+	/** @return the frame holding page pid, or NONE. */
+	int get(int pid) {
+		int h = hash(pid);
+		return segmentFor(h).get(pid, h);
+	}
+
+	/** Records that page pid is held by frame frameNo. */
+	void put(int pid, int frameNo) {
+		int h = hash(pid);
+		segmentFor(h).put(pid, h, frameNo);
+	}
+
+	/** @return the frame that held page pid, or NONE. */
+	int remove(int pid) {
+		int h = hash(pid);
+		return segmentFor(h).remove(pid, h);
+	}
+
+	private static final class Segment {
+
+		private final StampedLock lock = new StampedLock();
+		/** Key of slot i at 2i, value at 2i + 1. */
+		private int[] table;
+		private int size = 0;
+
+		Segment(int capacity) {
+			table = newTable(capacity);
+		}
+
+		private static int[] newTable(int capacity) {
+			int[] t = new int[2 * capacity];
+			for (int i = 0; i < t.length; i += 2) {
+				t[i] = NONE;
+			}
+			return t;
+		}
+
+		int get(int pid, int h) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0) {
+				int frameNo = probe(table, pid, h);
+				if (lock.validate(stamp)) {
+					return frameNo;
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				return probe(table, pid, h);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Looks pid up in t. The probe is bounded because an optimistic
+		 * reader may see the table in the middle of an update.
+		 */
+		private static int probe(int[] t, int pid, int h) {
+			int mask = (t.length >>> 1) - 1;
+			int i = h & mask;
+			for (int n = 0; n <= mask; n++) {
+				int key = t[2 * i];
+				if (key == pid) {
+					return t[2 * i + 1];
+				}
+				if (key == NONE) {
+					return NONE;
+				}
+				i = (i + 1) & mask;
+			}
+			return NONE;
+		}
+
+		void put(int pid, int h, int frameNo) {
+			long stamp = lock.writeLock();
+			try {
+				if (2 * (size + 1) > table.length >>> 1) {
+					grow();
+				}
+				if (insert(table, pid, h, frameNo)) {
+					size++;
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/** @return true if pid was not in t before. */
+		private static boolean insert(int[] t, int pid, int h, int frameNo) {
+			int mask = (t.length >>> 1) - 1;
+			int i = h & mask;
+			while (true) {
+				int key = t[2 * i];
+				if (key == pid || key == NONE) {
+					t[2 * i] = pid;
+					t[2 * i + 1] = frameNo;
+					return key == NONE;
+				}
+				i = (i + 1) & mask;
+			}
+		}
+
+		private void grow() {
+			int[] old = table;
+			int[] t = newTable(old.length);
+			for (int i = 0; i < old.length; i += 2) {
+				if (old[i] != NONE) {
+					insert(t, old[i], hash(old[i]), old[i + 1]);
+				}
+			}
+			table = t;
+		}
+
+		int remove(int pid, int h) {
+			long stamp = lock.writeLock();
+			try {
+				int[] t = table;
+				int mask = (t.length >>> 1) - 1;
+				int i = h & mask;
+				while (true) {
+					int key = t[2 * i];
+					if (key == NONE) {
+						return NONE;
+					}
+					if (key == pid) {
+						break;
+					}
+					i = (i + 1) & mask;
+				}
+				int frameNo = t[2 * i + 1];
+
+				// shift back every following entry that would no longer be
+				// reachable from its home slot
+				int hole = i;
+				int j = i;
+				while (true) {
+					j = (j + 1) & mask;
+					int key = t[2 * j];
+					if (key == NONE) {
+						break;
+					}
+					int home = hash(key) & mask;
+					if (((j - home) & mask) >= ((j - hole) & mask)) {
+						t[2 * hole] = key;
+						t[2 * hole + 1] = t[2 * j + 1];
+						hole = j;
+					}
+				}
+				t[2 * hole] = NONE;
+				size--;
+				return frameNo;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+	}
+}
@@ -0,0 +1,498 @@
+/*  File PartitionedBufMgr.java */
+
+package bufmgr;
+
+import diskmgr.Page;
+import exceptions.BufMgrException;
+import exceptions.BufferPoolExceededException;
+import exceptions.DiskMgrException;
+import exceptions.HashEntryNotFoundException;
+import exceptions.HashOperationException;
+import exceptions.InvalidBufferException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.InvalidReplacerException;
+import exceptions.PageNotFoundException;
+import exceptions.PageNotReadException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+import exceptions.ReplacerException;
+import global.AbstractBufMgr;
+import global.AbstractBufMgrFrameDesc;
+import global.PageId;
+import global.SystemDefs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A buffer manager split into independent partitions. Each partition is a
+ * BufMgr with its own frames, page table, replacer and pool lock. The pages
+ * are grouped in blocks of BLOCK_PAGES consecutive ones, and every page
+ * always goes to the partition picked by a hash of its block, so threads
+ * working on pages of different partitions never wait for each other and a
+ * replacer's hand only sweeps its own frames, while a run of consecutive
+ * pages is still read together up to the end of its block. The price is
+ * that a few hot pages next to each other share one partition's lock. Only
+ * calls into the disk manager are serialized across partitions.
+ *
+ * A partition can run out of unpinned frames while others still have some;
+ * pinPage then fails with BufferPoolExceededException as a single BufMgr of
+ * that size would.
+ */
+public class PartitionedBufMgr extends AbstractBufMgr {
+
+	/** Consecutive pages that always go to the same partition. */
+	public static final int BLOCK_PAGES = 8;
+
+	private final BufMgr[] partitions;
+	private final int numBuffers;
+	private final BufMgrFrameDesc[] frameTable;
+	private final ReentrantLock diskLock = new ReentrantLock();
+	private final ReentrantLock allocLock = new ReentrantLock();
+	private volatile PageStore pageStore = null;
+	/** Reads ahead of sequential pins over all partitions, or null. */
+	private volatile ReadAhead readAhead = null;
+
+	/**
+	 * Create a partitioned buffer manager object.
+	 *
+	 * @param numbufs
+	 *            number of buffers in the buffer pool, over all partitions.
+	 * @param replacerArg
+	 *            name of the buffer replacement policy (e.g. BufMgr.Clock);
+	 *            each partition gets its own replacer of this kind.
+	 * @param numPartitions
+	 *            number of partitions, between 1 and numbufs.
+	 * @throws InvalidReplacerException
+	 */
+	public PartitionedBufMgr(int numbufs, String replacerArg,
+			int numPartitions) throws InvalidReplacerException {
+		this(numbufs, replacerArg, numPartitions, false);
+	}
+
+	/**
+	 * Create a partitioned buffer manager object whose frames may live off
+	 * the heap.
+	 *
+	 * @param offHeap
+	 *            true to keep the frames of every partition in direct buffers.
+	 * @see #PartitionedBufMgr(int, String, int)
+	 * @see BufMgr#BufMgr(int, String, boolean)
+	 */
+	public PartitionedBufMgr(int numbufs, String replacerArg,
+			int numPartitions, boolean offHeap) throws InvalidReplacerException {
+		if (numPartitions < 1 || numPartitions > numbufs) {
+			throw new IllegalArgumentException(
+					"PartitionedBufMgr: numPartitions must be between 1 and the number of buffers");
+		}
+		numBuffers = numbufs;
+		partitions = new BufMgr[numPartitions];
+		frameTable = new BufMgrFrameDesc[numbufs];
+		int first = 0;
+		for (int i = 0; i < numPartitions; i++) {
+			int size = numbufs / numPartitions
+					+ (i < numbufs % numPartitions ? 1 : 0);
+			partitions[i] = new BufMgr(size, replacerArg, offHeap, diskLock,
+					allocLock);
+			System.arraycopy(partitions[i].getFrameTable(), 0, frameTable,
+					first, size);
+			first += size;
+		}
+	}
+
+	/**
+	 * Returns the partition that holds a page.
+	 *
+	 * @param pageId
+	 *            page number in the minibase.
+	 */
+	public BufMgr partitionOf(PageId pageId) {
+		int h = (pageId.pid / BLOCK_PAGES) * 0x9E3779B9;
+		return partitions[((h ^ (h >>> 16)) & 0x7FFFFFFF) % partitions.length];
+	}
+
+	/** @return the number of partitions. */
+	public int getNumPartitions() {
+		return partitions.length;
+	}
+
+	/**
+	 * Turns the TinyLFU admission filter on or off in every partition.
+	 *
+	 * @see BufMgr#setAdmissionFilter(boolean)
+	 */
+	public void setAdmissionFilter(boolean enabled) {
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i].setAdmissionFilter(enabled);
+		}
+	}
+
+	/**
+	 * Turns I/O through a FileChannel on or off in every partition. The
+	 * partitions share one channel.
+	 *
+	 * @see BufMgr#setChannelIO(boolean)
+	 */
+	public void setChannelIO(boolean enabled) throws IOException {
+		setPageStore(enabled ? new ChannelPageStore(
+				SystemDefs.JavabaseDB.db_name()) : null);
+	}
+
+	/**
+	 * Sets one page store for every partition.
+	 *
+	 * @see BufMgr#setPageStore(PageStore)
+	 */
+	public void setPageStore(PageStore store) throws IOException {
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i].setPageStore(store);
+		}
+		pageStore = store;
+	}
+
+	/**
+	 * Starts a background writer in every partition. The target and the
+	 * rate apply to each partition.
+	 *
+	 * @see BufMgr#startBackgroundWriter(int, int, long, TimeUnit)
+	 */
+	public void startBackgroundWriter(int dirtyTarget, int maxWrites,
+			long interval, TimeUnit unit) throws InterruptedException {
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i].startBackgroundWriter(dirtyTarget, maxWrites,
+					interval, unit);
+		}
+	}
+
+	/** @see BufMgr#stopBackgroundWriter() */
+	public void stopBackgroundWriter() throws InterruptedException {
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i].stopBackgroundWriter();
+		}
+	}
+
+	/**
+	 * Starts an evictor in every partition. The watermarks apply to each
+	 * partition and must fit the smallest one.
+	 *
+	 * @see BufMgr#startEvictor(int, int)
+	 */
+	public void startEvictor(int lowWater, int highWater)
+			throws InterruptedException {
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i].startEvictor(lowWater, highWater);
+		}
+	}
+
+	/** @see BufMgr#stopEvictor() */
+	public void stopEvictor() throws InterruptedException {
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i].stopEvictor();
+		}
+	}
+
+	/**
+	 * Turns on read-ahead. Runs are detected over all partitions, since a
+	 * run goes on into another partition at the end of each block; the
+	 * pages read ahead are split among the partitions as prefetchRun splits
+	 * them.
+	 *
+	 * @see BufMgr#startReadAhead(int, int)
+	 */
+	public synchronized void startReadAhead(int initialWindow, int maxWindow)
+			throws InterruptedException {
+		if (initialWindow < 1 || initialWindow > maxWindow
+				|| maxWindow > numBuffers / 4) {
+			throw new IllegalArgumentException(
+					"PartitionedBufMgr::startReadAhead: windows must satisfy 0 < initial <= max <= number of buffers / 4");
+		}
+		stopReadAhead();
+		readAhead = new ReadAhead(this::prefetchRun, initialWindow,
+				maxWindow);
+		readAhead.start();
+	}
+
+	/**
+	 * Prefetches through a thread of the partitioned buffer manager's own.
+	 *
+	 * @see BufMgr#prefetch(PageId[])
+	 */
+	public synchronized void prefetch(PageId[] pageIds) {
+		if (readAhead == null) {
+			readAhead = new ReadAhead(this::prefetchRun, 0, 0);
+			readAhead.start();
+		}
+		readAhead.requestAll(pageIds);
+	}
+
+	/** @see BufMgr#stopReadAhead() */
+	public synchronized void stopReadAhead() throws InterruptedException {
+		ReadAhead stopped = readAhead;
+		readAhead = null;
+		if (stopped != null) {
+			stopped.stop();
+		}
+	}
+
+	/**
+	 * Splits a run at the ends of its blocks and sends each piece to its
+	 * partition, which reads it at once.
+	 *
+	 * @see BufMgr#prefetchRun(PageId, int)
+	 */
+	void prefetchRun(PageId firstPage, int count) {
+		int pid = firstPage.pid;
+		int end = firstPage.pid + count;
+		while (pid < end) {
+			PageId pageId = new PageId(pid);
+			BufMgr partition = partitionOf(pageId);
+			int blockEnd = (pid / BLOCK_PAGES + 1) * BLOCK_PAGES;
+			int pieceEnd = Math.min(end, blockEnd);
+			partition.prefetchRun(pageId, pieceEnd - pid);
+			pid = pieceEnd;
+		}
+	}
+
+	/** Tells the read-ahead, if any, that the calling thread pins a page. */
+	private void accessed(PageId pageId) {
+		ReadAhead sequential = readAhead;
+		if (sequential != null) {
+			sequential.access(pageId.pid);
+		}
+	}
+
+	/** @see BufMgr#pinPage(PageId, Page, boolean) */
+	public void pinPage(PageId pageId, Page page, boolean emptyPage)
+			throws ReplacerException, HashOperationException,
+			PageUnpinnedException, InvalidFrameNumberException,
+			PageNotReadException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+		accessed(pageId);
+		partitionOf(pageId).pinPage(pageId, page, emptyPage);
+	}
+
+	/** @see BufMgr#pinPageBuffer(PageId, boolean) */
+	public ByteBuffer pinPageBuffer(PageId pageId, boolean emptyPage)
+			throws ReplacerException, HashOperationException,
+			PageUnpinnedException, InvalidFrameNumberException,
+			PageNotReadException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+		accessed(pageId);
+		return partitionOf(pageId).pinPageBuffer(pageId, emptyPage);
+	}
+
+	/**
+	 * Pins the pages of each partition as one batch. A run of consecutive
+	 * pages is read together up to the end of its block, and on from there
+	 * only if the next block falls into the same partition.
+	 *
+	 * @see BufMgr#pinPages(PageId[])
+	 */
+	public Page[] pinPages(PageId[] pageIds) throws ReplacerException,
+			HashOperationException, PageUnpinnedException,
+			InvalidFrameNumberException, PageNotReadException,
+			BufferPoolExceededException, PagePinnedException, BufMgrException,
+			IOException {
+
+		Page[] pages = new Page[pageIds.length];
+		try {
+			for (int p = 0; p < partitions.length; p++) {
+				int count = 0;
+				for (int i = 0; i < pageIds.length; i++) {
+					if (partitionOf(pageIds[i]) == partitions[p]) {
+						count++;
+					}
+				}
+				if (count == 0) {
+					continue;
+				}
+				PageId[] batch = new PageId[count];
+				int[] index = new int[count];
+				count = 0;
+				for (int i = 0; i < pageIds.length; i++) {
+					if (partitionOf(pageIds[i]) == partitions[p]) {
+						batch[count] = pageIds[i];
+						index[count++] = i;
+					}
+				}
+				Page[] batchPages = partitions[p].pinPages(batch);
+				for (int i = 0; i < count; i++) {
+					pages[index[i]] = batchPages[i];
+				}
+			}
+			return pages;
+		} catch (Throwable e) {
+			// let go of the partitions pinned before the failure; a page that
+			// cannot be unpinned does not stop the others from being
+			for (int i = 0; i < pageIds.length; i++) {
+				if (pages[i] != null) {
+					try {
+						partitionOf(pageIds[i]).unpinPage(pageIds[i], false);
+					} catch (Exception e1) {
+						e.addSuppressed(e1);
+					}
+				}
+			}
+			throw e;
+		}
+	}
+
+	/** @see BufMgr#pinPage(PageId, Page, boolean, int) */
+	public void pinPage(PageId pageId, Page page, boolean emptyPage,
+			int latchMode) throws ReplacerException, HashOperationException,
+			PageUnpinnedException, InvalidFrameNumberException,
+			PageNotReadException, BufferPoolExceededException,
+			PagePinnedException, BufMgrException, IOException {
+		accessed(pageId);
+		partitionOf(pageId).pinPage(pageId, page, emptyPage, latchMode);
+	}
+
+	/**
+	 * Waits only for a frame of the page's own partition.
+	 *
+	 * @see BufMgr#pinPage(PageId, Page, boolean, long, TimeUnit)
+	 */
+	public void pinPage(PageId pageId, Page page, boolean emptyPage,
+			long timeout, TimeUnit unit) throws ReplacerException,
+			HashOperationException, PageUnpinnedException,
+			InvalidFrameNumberException, PageNotReadException,
+			BufferPoolExceededException, PagePinnedException, BufMgrException,
+			IOException, InterruptedException {
+		accessed(pageId);
+		partitionOf(pageId).pinPage(pageId, page, emptyPage, timeout, unit);
+	}
+
+	/** @see BufMgr#unpinPage(PageId, boolean) */
+	public void unpinPage(PageId pageId, boolean dirty)
+			throws ReplacerException, PageUnpinnedException,
+			HashEntryNotFoundException, InvalidFrameNumberException {
+		partitionOf(pageId).unpinPage(pageId, dirty);
+	}
+
+	/** @see BufMgr#unpinPage(PageId, boolean, int) */
+	public void unpinPage(PageId pageId, boolean dirty, int latchMode)
+			throws ReplacerException, PageUnpinnedException,
+			HashEntryNotFoundException, InvalidFrameNumberException {
+		partitionOf(pageId).unpinPage(pageId, dirty, latchMode);
+	}
+
+	/** @see BufMgr#tryOptimisticRead(PageId, Page) */
+	public long tryOptimisticRead(PageId pageId, Page page) {
+		return partitionOf(pageId).tryOptimisticRead(pageId, page);
+	}
+
+	/** @see BufMgr#validate(PageId, long) */
+	public boolean validate(PageId pageId, long stamp) {
+		return partitionOf(pageId).validate(pageId, stamp);
+	}
+
+	/**
+	 * Call DB object to allocate a run of new pages and pin the first one in
+	 * its partition. If that fails, ask DB to deallocate all these pages.
+	 *
+	 * @see BufMgr#newPage(Page, int)
+	 */
+	public PageId newPage(Page firstpage, int howmany)
+			throws BufferPoolExceededException, HashOperationException,
+			ReplacerException, HashEntryNotFoundException,
+			InvalidFrameNumberException, PagePinnedException,
+			PageUnpinnedException, PageNotReadException, BufMgrException,
+			DiskMgrException, IOException {
+
+		PageId newPageId = new PageId();
+
+		try {
+			allocLock.lock();
+			try {
+				SystemDefs.JavabaseDB.allocate_page(newPageId, howmany);
+			} finally {
+				allocLock.unlock();
+			}
+			PageStore store = pageStore;
+			if (store != null) {
+				store.allocate(newPageId, howmany);
+			}
+		} catch (Exception e) {
+			throw new DiskMgrException(e,
+					"BUFMGR::newPage() failed during allocating disk page");
+		}
+
+		try {
+			pinPage(newPageId, firstpage, true);
+		} catch (Exception e) {
+			try {
+				allocLock.lock();
+				try {
+					SystemDefs.JavabaseDB.deallocate_page(newPageId, howmany);
+				} finally {
+					allocLock.unlock();
+				}
+			} catch (Exception e1) {
+				throw new DiskMgrException(e, "BUFMGR::newPage() failed "
+						+ "after pinPage failed and deallocate page failed");
+			}
+			throw new DiskMgrException(e,
+					"BUFMGR::newPage() failed during pinPage");
+		}
+
+		return newPageId;
+	}
+
+	/** @see BufMgr#freePage(PageId) */
+	public void freePage(PageId pageId) throws InvalidBufferException,
+			ReplacerException, HashOperationException,
+			InvalidFrameNumberException, PageNotReadException,
+			BufferPoolExceededException, PagePinnedException,
+			PageUnpinnedException, HashEntryNotFoundException, BufMgrException,
+			DiskMgrException, IOException {
+		partitionOf(pageId).freePage(pageId);
+	}
+
+	/** @see BufMgr#flushPage(PageId) */
+	public void flushPage(PageId pageId) throws HashOperationException,
+			PageUnpinnedException, PagePinnedException, PageNotFoundException,
+			BufMgrException, IOException {
+		partitionOf(pageId).flushPage(pageId);
+	}
+
+	/** Flushes all pages of every partition to disk. */
+	public void flushAllPages() throws HashOperationException,
+			PageUnpinnedException, PagePinnedException, PageNotFoundException,
+			BufMgrException, IOException {
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i].flushAllPages();
+		}
+	}
+
+	/**
+	 * Gets the total number of buffers.
+	 *
+	 * @return total number of buffer frames over all partitions.
+	 */
+	public int getNumBuffers() {
+		return numBuffers;
+	}
+
+	/**
+	 * Gets the total number of unpinned buffer frames.
+	 *
+	 * @return total number of unpinned buffer frames over all partitions.
+	 */
+	public int getNumUnpinnedBuffers() {
+		int unpinned = 0;
+		for (int i = 0; i < partitions.length; i++) {
+			unpinned += partitions[i].getNumUnpinnedBuffers();
+		}
+		return unpinned;
+	}
+
+	/**
+	 * The frames of all partitions, one partition after the other. A
+	 * descriptor's frame number is its number within its partition.
+	 */
+	public AbstractBufMgrFrameDesc[] getFrameTable() {
+		return frameTable;
+	}
+}
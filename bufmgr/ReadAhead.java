@@ -0,0 +1,164 @@
+package bufmgr;
+
+import global.PageId;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads pages ahead of threads that pin pages in ascending order. Each
+ * thread's pins are watched on their own; once a thread has pinned TRIGGER
+ * pages in a row, each the one after the last, the next pages are read in
+ * by a background thread without being pinned. As in the read-ahead of a
+ * file system, the window starts small and doubles, up to a maximum, every
+ * time the thread gets within half a window of the pages read ahead, so a
+ * long scan finds its pages in the pool while a short run costs little.
+ * Runs of pages can also be requested directly, as explicit prefetches do;
+ * a read-ahead created with no window only serves those. Requests that
+ * arrive while the background thread is behind are dropped.
+ */
+class ReadAhead implements Runnable {
+
+	/** Pins one after the other before pages are read ahead. */
+	static final int TRIGGER = 2;
+	private static final int QUEUE_SIZE = 64;
+
+	/** Loads a run of pages into the pool without pinning them. */
+	interface Loader {
+		void load(PageId firstPage, int count);
+	}
+
+	/** What one thread has been pinning. */
+	private static class Stream {
+		int last = -2;
+		int run = 0;
+		int window = 0;
+		/** The last page read ahead. */
+		int ahead = 0;
+	}
+
+	private final Loader loader;
+	private final int initialWindow;
+	private final int maxWindow;
+	private final ThreadLocal<Stream> streams = new ThreadLocal<Stream>() {
+		protected Stream initialValue() {
+			return new Stream();
+		}
+	};
+	/** Runs to read, as (first pid << 32) | number of pages. */
+	private final ArrayBlockingQueue<Long> requests = new ArrayBlockingQueue<Long>(
+			QUEUE_SIZE);
+	private volatile boolean stopping = false;
+	private final Thread thread;
+
+	/**
+	 * Creates the read-ahead; it runs once start is called.
+	 *
+	 * @param initialWindow
+	 *            pages read ahead once a run is detected, or 0 to detect
+	 *            no runs.
+	 * @param maxWindow
+	 *            the most pages read ahead at once.
+	 */
+	ReadAhead(Loader loader, int initialWindow, int maxWindow) {
+		this.loader = loader;
+		this.initialWindow = initialWindow;
+		this.maxWindow = maxWindow;
+		thread = new Thread(this, "BufMgr read-ahead");
+		thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/** Stops the background thread once it has loaded the current page. */
+	void stop() throws InterruptedException {
+		stopping = true;
+		thread.join();
+	}
+
+	/**
+	 * Records that the calling thread is pinning a page, and reads ahead if
+	 * it is in the middle of a run.
+	 */
+	void access(int pid) {
+		if (initialWindow == 0) {
+			return;
+		}
+		Stream s = streams.get();
+		if (pid == s.last) {
+			return;
+		}
+		if (pid == s.last + 1) {
+			s.run++;
+		} else {
+			s.run = 0;
+			s.window = 0;
+		}
+		s.last = pid;
+		if (s.run < TRIGGER) {
+			return;
+		}
+
+		if (s.window == 0) {
+			s.window = initialWindow;
+			s.ahead = pid;
+		} else if (s.ahead - pid > s.window / 2) {
+			return;
+		} else {
+			s.window = Math.min(s.window * 2, maxWindow);
+		}
+		int first = Math.max(s.ahead, pid) + 1;
+		request(first, s.window);
+		s.ahead = first + s.window - 1;
+	}
+
+	/**
+	 * Asks for a run of pages to be loaded.
+	 *
+	 * @return false if the request was dropped.
+	 */
+	boolean request(int first, int count) {
+		return requests.offer(((long) first << 32) | count);
+	}
+
+	/**
+	 * Asks for a set of pages to be loaded, sorted into runs of consecutive
+	 * pages.
+	 */
+	void requestAll(PageId[] pageIds) {
+		int[] pids = new int[pageIds.length];
+		for (int i = 0; i < pageIds.length; i++) {
+			pids[i] = pageIds[i].pid;
+		}
+		Arrays.sort(pids);
+		for (int i = 0; i < pids.length;) {
+			int end = i + 1;
+			// duplicates stay in the run
+			while (end < pids.length && pids[end] <= pids[end - 1] + 1) {
+				end++;
+			}
+			request(pids[i], pids[end - 1] - pids[i] + 1);
+			i = end;
+		}
+	}
+
+	public void run() {
+		while (!stopping) {
+			Long request;
+			try {
+				request = requests.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (request == null) {
+				continue;
+			}
+			int first = (int) (request.longValue() >>> 32);
+			int count = (int) request.longValue();
+			loader.load(new PageId(first), count);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package bufmgr;
+
+/**
+ * The TinyLFU admission policy of Einziger, Friedman and Manes. It estimates
+ * how often each page has been pinned recently with a count-min sketch of
+ * 4-bit counters, packed sixteen to a long, behind a "doorkeeper" Bloom
+ * filter that absorbs the first access to every page so that one-hit wonders
+ * never reach the sketch. Once as many accesses as ten times the number of
+ * buffers have been recorded, every counter is halved and the doorkeeper is
+ * cleared, so the estimates follow changes in the workload.
+ *
+ * BufMgr asks it whether a page about to be read in is worth evicting the
+ * replacer's victim for.
+ */
+class TinyLFU {
+
+	private static final int DEPTH = 4;
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L,
+			0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	/** Counters per row of the sketch; a power of two. */
+	private final int width;
+	private final long[] table;
+	private final long[] doorkeeper;
+	private final int doorkeeperMask;
+	private final int sampleSize;
+	private int additions = 0;
+
+	/**
+	 * Creates a sketch sized for a buffer pool.
+	 *
+	 * @param numBuffers
+	 *            number of frames in the buffer pool.
+	 */
+	TinyLFU(int numBuffers) {
+		int w = 16;
+		while (w < numBuffers) {
+			w <<= 1;
+		}
+		width = w;
+		table = new long[DEPTH * width / 16];
+		doorkeeper = new long[DEPTH * width / 64];
+		doorkeeperMask = DEPTH * width - 1;
+		sampleSize = 10 * Math.max(numBuffers, 1);
+	}
+
+	private static int hash(int pid, int row) {
+		long h = (pid + 1) * SEEDS[row];
+		h ^= h >>> 32;
+		return (int) (h ^ (h >>> 17));
+	}
+
+	private int counterIndex(int pid, int row) {
+		return row * width + (hash(pid, row) & (width - 1));
+	}
+
+	private int counter(int index) {
+		return (int) (table[index >>> 4] >>> ((index & 15) << 2)) & 0xf;
+	}
+
+	/**
+	 * Records one access to a page.
+	 *
+	 * @param pid
+	 *            the page number.
+	 */
+	void recordAccess(int pid) {
+		int bit0 = hash(pid, 0) & doorkeeperMask;
+		int bit1 = hash(pid, 1) & doorkeeperMask;
+		long mask0 = 1L << bit0;
+		long mask1 = 1L << bit1;
+		if ((doorkeeper[bit0 >>> 6] & mask0) == 0
+				|| (doorkeeper[bit1 >>> 6] & mask1) == 0) {
+			// first access since the last reset: only the doorkeeper sees it
+			doorkeeper[bit0 >>> 6] |= mask0;
+			doorkeeper[bit1 >>> 6] |= mask1;
+		} else {
+			for (int row = 0; row < DEPTH; row++) {
+				int index = counterIndex(pid, row);
+				if (counter(index) < 15) {
+					table[index >>> 4] += 1L << ((index & 15) << 2);
+				}
+			}
+		}
+		if (++additions == sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Estimates how often a page was accessed recently.
+	 *
+	 * @param pid
+	 *            the page number.
+	 * @return the estimated number of accesses, at most 16.
+	 */
+	int frequency(int pid) {
+		int min = 15;
+		for (int row = 0; row < DEPTH; row++) {
+			min = Math.min(min, counter(counterIndex(pid, row)));
+		}
+		int bit0 = hash(pid, 0) & doorkeeperMask;
+		int bit1 = hash(pid, 1) & doorkeeperMask;
+		if ((doorkeeper[bit0 >>> 6] & (1L << bit0)) != 0
+				&& (doorkeeper[bit1 >>> 6] & (1L << bit1)) != 0) {
+			min++;
+		}
+		return min;
+	}
+
+	/**
+	 * Decides whether a candidate page should replace a victim page.
+	 *
+	 * @return true if the candidate was accessed more often than the victim.
+	 */
+	boolean admit(int candidatePid, int victimPid) {
+		return frequency(candidatePid) > frequency(victimPid);
+	}
+
+	/** Halves every counter and clears the doorkeeper. */
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		for (int i = 0; i < doorkeeper.length; i++) {
+			doorkeeper[i] = 0;
+		}
+		additions = sampleSize / 2;
+	}
+}
@@ -0,0 +1,232 @@
+package bufmgr;
+
+import exceptions.BufferPoolExceededException;
+import exceptions.InvalidFrameNumberException;
+import exceptions.PagePinnedException;
+import exceptions.PageUnpinnedException;
+import global.AbstractBufMgr;
+import global.PageId;
+
+/**
+ * This class implements the full 2Q replacement strategy of Johnson and
+ * Shasha. A page read in for the first time goes to the FIFO queue A1in. When
+ * it is evicted from A1in its page number is remembered in the ghost queue
+ * A1out; a page read in again while still in A1out is judged hot and goes to
+ * the LRU queue Am. Pages seen only once therefore never push Am pages out,
+ * and a scan of a large file only cycles through A1in.
+ *
+ * A1in is allowed a quarter of the frames before it gives up victims in
+ * preference to Am, and A1out remembers as many pages as half the frames.
+ * Pinned frames stay in their queue and are skipped when a victim is chosen.
+ */
+public class TwoQ extends BufMgrReplacer {
+
+	FrameList emptyList;
+	FrameList a1in;
+	FrameList am;
+	GhostList a1out;
+	int kin;
+	int numUnpinned;
+
+	public TwoQ() {
+	}
+
+	public TwoQ(AbstractBufMgr b) {
+		setBufferManager((BufMgr) b);
+	}
+
+	/**
+	 * Sets the buffer manager and puts every frame on the empty list.
+	 *
+	 * @param mgrArg
+	 *            the buffer manage to be assigned to.
+	 */
+	public void setBufferManager(BufMgr mgrArg) {
+		super.setBufferManager(mgrArg);
+		int numBuffers = mgr.getNumBuffers();
+		emptyList = new FrameList(numBuffers);
+		a1in = new FrameList(numBuffers);
+		am = new FrameList(numBuffers);
+		a1out = new GhostList(numBuffers / 2);
+		kin = Math.max(1, numBuffers / 4);
+		for (int i = 0; i < numBuffers; i++) {
+			emptyList.addLast(i);
+		}
+		numUnpinned = numBuffers;
+	}
+
+	/**
+	 * Moves the frame to the queue of the page being read in, remembering
+	 * the page leaving A1in in A1out.
+	 *
+	 * @param frameNo
+	 *            frame number the page is read into.
+	 * @param pageId
+	 *            the page being brought in.
+	 */
+	public void load(int frameNo, PageId pageId) {
+		retire(frameNo);
+
+		if (a1out.remove(pageId.pid)) {
+			am.addLast(frameNo);
+		} else {
+			a1in.addLast(frameNo);
+		}
+	}
+
+	/**
+	 * Pins a candidate page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @return true if successful.
+	 */
+	public void pin(int frameNo) throws InvalidFrameNumberException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"TwoQ::pin Invalid frame Number");
+		}
+
+		// a hit in Am refreshes its recency; A1in stays in FIFO order
+		if (am.contains(frameNo)) {
+			am.moveToLast(frameNo);
+		}
+		if (this.state_bit[frameNo] != Pinned) {
+			this.state_bit[frameNo] = Pinned;
+			numUnpinned--;
+		}
+	}
+
+	/**
+	 * Unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws InvalidFrameNumberException
+	 *             if the frame number is less than zero or bigger than number
+	 *             of buffers.
+	 * @throws PageUnpinnedException
+	 *             if the page is originally unpinned.
+	 * @return true if successful.
+	 */
+	public boolean unpin(int frameNo) throws InvalidFrameNumberException,
+			PageUnpinnedException {
+
+		if (frameNo < 0 || frameNo >= mgr.getNumBuffers()) {
+			throw new InvalidFrameNumberException(null,
+					"TwoQ::unpin Invalid frame Number");
+		}
+
+		if (this.state_bit[frameNo] == Pinned) {
+			this.state_bit[frameNo] = Referenced;
+			numUnpinned++;
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the page in a frame out of A1in or Am, remembering it in A1out
+	 * if it came from A1in.
+	 */
+	private void retire(int frameNo) {
+		BufMgrFrameDesc old = frameTable[frameNo];
+		if (a1in.remove(frameNo)) {
+			if (old.isValid()) {
+				a1out.add(old.getPid());
+			}
+		} else if (!am.remove(frameNo)) {
+			emptyList.remove(frameNo);
+		}
+	}
+
+	/**
+	 * Remembers the evicted page in A1out, as a replacement would, and keeps
+	 * the frame out of every queue until it is loaded or freed.
+	 */
+	public void evict(int frameNo) {
+		retire(frameNo);
+		if (this.state_bit[frameNo] != Pinned) {
+			this.state_bit[frameNo] = Pinned;
+			numUnpinned--;
+		}
+	}
+
+	/**
+	 * Moves a page read ahead to the head of A1in, even if it was read in
+	 * from A1out, so that it goes first once A1in is over its share.
+	 */
+	public void demote(int frameNo) {
+		am.remove(frameNo);
+		a1in.moveToFirst(frameNo);
+	}
+
+	/**
+	 * Frees and unpins a page in the buffer pool.
+	 *
+	 * @param frameNo
+	 *            frame number of the page.
+	 * @throws PagePinnedException
+	 *             if the page is pinned.
+	 */
+	public void free(int frameNo) throws PagePinnedException {
+		// the page is deallocated, so it is not remembered in A1out
+		a1in.remove(frameNo);
+		am.remove(frameNo);
+		emptyList.moveToFirst(frameNo);
+		if (this.state_bit[frameNo] == Pinned) {
+			numUnpinned++;
+		}
+		this.state_bit[frameNo] = Available;
+	}
+
+	/** Must pin the returned frame. */
+	public int pick_victim() throws BufferPoolExceededException,
+			PagePinnedException {
+
+		if (!emptyList.isEmpty()) {
+			return emptyList.first();
+		}
+
+		int victim = FrameList.NIL;
+		if (a1in.size() > kin) {
+			victim = oldestUnpinned(a1in);
+		}
+		if (victim == FrameList.NIL) {
+			victim = oldestUnpinned(am);
+		}
+		if (victim == FrameList.NIL) {
+			victim = oldestUnpinned(a1in);
+		}
+		if (victim == FrameList.NIL) {
+			throw new BufferPoolExceededException(null,
+					"TwoQ:pick_victim buffer pool exceeded");
+		}
+		return victim;
+	}
+
+	private int oldestUnpinned(FrameList queue) {
+		int frameNo = queue.first();
+		while (frameNo != FrameList.NIL && this.state_bit[frameNo] == Pinned) {
+			frameNo = queue.next(frameNo);
+		}
+		return frameNo;
+	}
+
+	/** Retruns the name of the replacer algorithm. */
+	public String name() {
+		return "2Q";
+	}
+
+	/**
+	 * Counts the unpinned frames (free frames) in the buffer pool.
+	 *
+	 * @returns the total number of unpinned frames in the buffer pool.
+	 */
+	public int getNumUnpinnedBuffers() {
+		return numUnpinned;
+	}
+}
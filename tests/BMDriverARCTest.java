@@ -0,0 +1,95 @@
+package tests;
+
+import global.GlobalConst;
+import global.SystemDefs;
+import global.TestDriver;
+
+import bufmgr.BufMgr;
+
+public class BMDriverARCTest extends TestDriver implements GlobalConst {
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverARCTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.ARC"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20);
+	}
+
+	/**
+	 * Pages referenced twice move to T2, and while T1's target size is zero
+	 * a scan only replaces pages in T1.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 keeps hot pages through a scan:\n");
+
+		// LRU would keep EFGH
+		boolean status = ReferenceStrings.keeps("bufmgr.ARC",
+				"ABABCDEFGH", 4, "ABGH");
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A miss on a page remembered in B1 grows T1's target size, so the next
+	 * victim comes from T2, and a miss on a page remembered in B2 shrinks it
+	 * again.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 adapts the target size of T1:\n");
+
+		boolean status = OK;
+		// C comes back from B1, so F evicts A from T2 rather than E from T1
+		status &= ReferenceStrings.keeps("bufmgr.ARC", "ABABCDECF", 4, "BCEF");
+		// A comes back from B2, so G evicts F from T1 rather than B from T2
+		status &= ReferenceStrings.keeps("bufmgr.ARC",
+				"ABABCDECFAG", 4, "ABCG");
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverARCTest bmt = new BMDriverARCTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,369 @@
+package tests;
+
+import global.AbstractBufMgrFrameDesc;
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import bufmgr.BufMgr;
+import bufmgr.ChannelPageStore;
+
+import diskmgr.Page;
+
+public class BMDriverBackgroundWriterTest extends TestDriver implements
+		GlobalConst {
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverBackgroundWriterTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/** @return the number of dirty frames in the buffer pool. */
+	private int countDirty() {
+		AbstractBufMgrFrameDesc[] frames = SystemDefs.JavabaseBM
+				.getFrameTable();
+		int dirty = 0;
+		for (int i = 0; i < frames.length; i++) {
+			if (frames[i].isDirty()) {
+				dirty++;
+			}
+		}
+		return dirty;
+	}
+
+	/**
+	 * Waits up to five seconds for the number of dirty frames to drop to a
+	 * target.
+	 *
+	 * @return the number of dirty frames at the end.
+	 */
+	private int awaitDirty(int target) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		int dirty = countDirty();
+		while (dirty > target && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			dirty = countDirty();
+		}
+		return dirty;
+	}
+
+	/**
+	 * Fills every frame with a new page holding a value, and unpins it
+	 * dirty.
+	 *
+	 * @return the first of the pages, which are consecutive.
+	 */
+	private PageId dirtyPool() throws Exception {
+		Page pg = new Page();
+		PageId firstPid = SystemDefs.JavabaseBM.newPage(pg, NUMBUF);
+		for (int i = 0; i < NUMBUF; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			if (i > 0) {
+				SystemDefs.JavabaseBM.pinPage(pid, pg, true);
+			}
+			Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+			SystemDefs.JavabaseBM.unpinPage(pid, true);
+		}
+		return firstPid;
+	}
+
+	private boolean freePages(PageId firstPid) {
+		boolean status = OK;
+		for (int i = 0; i < NUMBUF; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * With a target of no dirty frames, the writer must clean the whole pool
+	 * and the pages must be on disk.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 lets the background writer clean "
+				+ "every frame:\n");
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			bm.startBackgroundWriter(0, 4, 10, TimeUnit.MILLISECONDS);
+			firstPid = dirtyPool();
+		} catch (Exception e) {
+			System.err.print("*** Could not dirty the buffer pool\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			System.out.print("  - Wait for the frames to be cleaned\n");
+			int dirty = awaitDirty(0);
+			if (dirty != 0) {
+				status = FAIL;
+				System.err.print("*** " + dirty + " frames are still dirty\n");
+			}
+
+			System.out.print("  - Read the pages through the disk manager\n");
+			Page page = new Page();
+			for (int i = 0; status == OK && i < NUMBUF; i++) {
+				PageId pid = new PageId(firstPid.pid + i);
+				SystemDefs.JavabaseDB.read_page(pid, page);
+				if (Convert.getIntValue(0, page.getpage()) != pid.pid + 99999) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid
+							+ " was not written\n");
+				}
+			}
+			bm.stopBackgroundWriter();
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (freePages(firstPid) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * The writer must leave as many dirty frames as its target.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 leaves the target number of frames "
+				+ "dirty:\n");
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		int target = NUMBUF / 2;
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = dirtyPool();
+			bm.startBackgroundWriter(target, 4, 10, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			System.err.print("*** Could not dirty the buffer pool\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			System.out.print("  - Wait for the frames to be cleaned\n");
+			int dirty = awaitDirty(target);
+			// a few more rounds must not clean any more
+			Thread.sleep(100);
+			dirty = countDirty();
+			if (dirty != target) {
+				status = FAIL;
+				System.err.print("*** " + dirty + " frames are dirty, expected "
+						+ target + "\n");
+			}
+			bm.stopBackgroundWriter();
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (freePages(firstPid) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A page store whose first write waits until it is let go, and tells
+	 * which page it is writing.
+	 */
+	private static class BlockingStore extends ChannelPageStore {
+
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile int blockedPid = -1;
+
+		BlockingStore() throws IOException {
+			super(SystemDefs.JavabaseDB.db_name());
+		}
+
+		public void write(PageId pageId, ByteBuffer buffer) throws IOException {
+			boolean first;
+			synchronized (this) {
+				first = blockedPid == -1;
+				if (first) {
+					blockedPid = pageId.pid;
+				}
+			}
+			if (first) {
+				writing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			super.write(pageId, buffer);
+		}
+	}
+
+	/**
+	 * While the writer is writing a page, other pages must still be pinned,
+	 * and the page being written must still be pinned and changed; the
+	 * change must not be lost when the write is over.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 pins pages while the writer is "
+				+ "writing:\n");
+
+		final BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		final PageId firstPid;
+		BlockingStore store;
+		boolean status = OK;
+
+		try {
+			firstPid = dirtyPool();
+			store = new BlockingStore();
+			bm.setPageStore(store);
+			bm.startBackgroundWriter(0, 1, 10, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			System.err.print("*** Could not dirty the buffer pool\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			if (!store.writing.await(5, TimeUnit.SECONDS)) {
+				status = FAIL;
+				System.err.print("*** The writer did not write\n");
+			}
+
+			if (status == OK) {
+				System.out.print("  - Change every page, the one being "
+						+ "written too\n");
+				Thread changer = new Thread() {
+					public void run() {
+						try {
+							Page page = new Page();
+							for (int i = 0; i < NUMBUF; i++) {
+								PageId pid = new PageId(firstPid.pid + i);
+								bm.pinPage(pid, page, false);
+								Convert.setIntValue(pid.pid + 77777, 0, page
+										.getpage());
+								bm.unpinPage(pid, true);
+							}
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				changer.start();
+				changer.join(5000);
+				if (changer.isAlive()) {
+					status = FAIL;
+					System.err.print("*** Pins waited for the write\n");
+				}
+				store.release.countDown();
+				changer.join();
+			}
+			store.release.countDown();
+
+			System.out.print("  - Wait for the frames to be cleaned\n");
+			int dirty = awaitDirty(0);
+			if (status == OK && dirty != 0) {
+				status = FAIL;
+				System.err.print("*** " + dirty + " frames are still dirty\n");
+			}
+			bm.stopBackgroundWriter();
+			bm.setPageStore(null);
+
+			Page page = new Page();
+			for (int i = 0; status == OK && i < NUMBUF; i++) {
+				PageId pid = new PageId(firstPid.pid + i);
+				SystemDefs.JavabaseDB.read_page(pid, page);
+				if (Convert.getIntValue(0, page.getpage()) != pid.pid + 77777) {
+					status = FAIL;
+					System.err.print("*** The change to page " + pid.pid
+							+ (pid.pid == store.blockedPid ? ", which was "
+									+ "being written," : "")
+							+ " was lost\n");
+				}
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (freePages(firstPid) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverBackgroundWriterTest bmt = new BMDriverBackgroundWriterTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,476 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import bufmgr.BufMgr;
+import bufmgr.PageStore;
+
+import diskmgr.Page;
+import exceptions.BufferPoolExceededException;
+
+public class BMDriverBatchTest extends TestDriver implements GlobalConst {
+
+	private static final int BATCH = 12;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverBatchTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Writes twice as many pages as there are frames, each holding a value,
+	 * and replaces the buffer manager with a fresh one, so that none of the
+	 * pages is in the pool.
+	 *
+	 * @param channel
+	 *            true to read and write the fresh one's frames through a
+	 *            FileChannel.
+	 * @return the first of the pages, which are consecutive.
+	 */
+	private PageId writePages(int numPages, boolean channel) throws Exception {
+		Page pg = new Page();
+		PageId firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+		for (int i = 0; i < numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			if (i > 0) {
+				SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+			}
+			Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+			SystemDefs.JavabaseBM.unpinPage(pid, true);
+		}
+		SystemDefs.JavabaseBM.flushAllPages();
+		((BufMgr) SystemDefs.JavabaseBM).setPageStore(null);
+
+		BufMgr bm = new BufMgr(NUMBUF, "bufmgr.Clock");
+		bm.setChannelIO(channel);
+		SystemDefs.initBufMgr(bm);
+		return firstPid;
+	}
+
+	/**
+	 * A page store over the disk manager that holds up reads of the pages
+	 * from heldFrom on until it is released.
+	 */
+	private static class HeldStore implements PageStore {
+		final int heldFrom;
+		final CountDownLatch reading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		HeldStore(int heldFrom) {
+			this.heldFrom = heldFrom;
+		}
+
+		public void read(PageId pageId, ByteBuffer buffer) throws IOException {
+			if (pageId.pid >= heldFrom) {
+				reading.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			Page page = new Page();
+			try {
+				SystemDefs.JavabaseDB.read_page(pageId, page);
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+			buffer.put(page.getpage());
+		}
+
+		public void write(PageId pageId, ByteBuffer buffer) throws IOException {
+			byte[] data = new byte[MINIBASE_PAGESIZE];
+			buffer.get(data);
+			try {
+				SystemDefs.JavabaseDB.write_page(pageId, new Page(data));
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+		}
+
+		public void allocate(PageId firstPage, int howmany) {
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * @return a batch of pages in no particular order, with runs of
+	 *         consecutive pages, gaps and one page twice.
+	 */
+	private PageId[] batch(PageId firstPid) {
+		int[] offsets = { 9, 2, 3, 4, 15, 1, 10, 3, 20, 11, 0, 16 };
+		PageId[] pageIds = new PageId[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			pageIds[i] = new PageId(firstPid.pid + offsets[i]);
+		}
+		return pageIds;
+	}
+
+	/** @return whether a page is in the buffer pool. */
+	private boolean resident(PageId pid) {
+		return ((BufMgr) SystemDefs.JavabaseBM).tryOptimisticRead(pid,
+				new Page()) != 0;
+	}
+
+	private boolean freePages(PageId firstPid, int numPages) {
+		boolean status = OK;
+		try {
+			((BufMgr) SystemDefs.JavabaseBM).stopReadAhead();
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Pins a batch of pages and checks that each handle holds its own page.
+	 *
+	 * @return whether the pages were pinned, read and unpinned.
+	 */
+	private boolean pinBatch(BufMgr bm, PageId firstPid) {
+		PageId[] pageIds = batch(firstPid);
+		boolean status = OK;
+		int unpinned = bm.getNumUnpinnedBuffers();
+		try {
+			Page[] pages = bm.pinPages(pageIds);
+			for (int i = 0; i < BATCH; i++) {
+				int data = Convert.getIntValue(0, pages[i].getpage());
+				if (data != pageIds[i].pid + 99999) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page "
+							+ pageIds[i].pid + "\n");
+				}
+			}
+			for (int i = 0; i < BATCH; i++) {
+				bm.unpinPage(pageIds[i], false);
+			}
+			if (bm.getNumUnpinnedBuffers() != unpinned) {
+				status = FAIL;
+				System.err.print("*** The batch left pages pinned\n");
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Could not pin the batch\n");
+			e.printStackTrace();
+		}
+		return status;
+	}
+
+	/**
+	 * Pins a batch of pages, partly in the pool already, through the disk
+	 * manager and through a FileChannel.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 pins a batch of pages:\n");
+
+		int numPages = NUMBUF * 2;
+		boolean status = OK;
+
+		for (int pass = 0; status == OK && pass < 2; pass++) {
+			boolean channel = pass == 1;
+			System.out.print("  - Read through "
+					+ (channel ? "a FileChannel" : "the disk manager") + "\n");
+			PageId firstPid;
+			try {
+				firstPid = writePages(numPages, channel);
+			} catch (Exception e) {
+				System.err.print("*** Could not write " + numPages
+						+ " pages\n");
+				e.printStackTrace();
+				return false;
+			}
+			BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+
+			try {
+				// one page of the batch is in the pool and pinned already
+				Page pg = new Page();
+				PageId pinned = new PageId(firstPid.pid + 10);
+				bm.pinPage(pinned, pg, false);
+				status = pinBatch(bm, firstPid);
+				bm.unpinPage(pinned, false);
+				// and now every page of it is in the pool
+				if (status == OK) {
+					status = pinBatch(bm, firstPid);
+				}
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+
+			if (freePages(firstPid, numPages) == FAIL) {
+				status = FAIL;
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A batch that does not fit in the pool must leave nothing pinned.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 pins a batch larger than the pool:\n");
+
+		int numPages = NUMBUF * 2;
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = writePages(numPages, true);
+		} catch (Exception e) {
+			System.err.print("*** Could not write " + numPages + " pages\n");
+			e.printStackTrace();
+			return false;
+		}
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+
+		PageId[] pageIds = new PageId[NUMBUF + 1];
+		for (int i = 0; i < pageIds.length; i++) {
+			pageIds[i] = new PageId(firstPid.pid + numPages - 1 - i);
+		}
+		try {
+			bm.pinPages(pageIds);
+			status = FAIL;
+			System.err.print("*** Pinned more pages than there are frames\n");
+		} catch (BufferPoolExceededException e) {
+			if (bm.getNumUnpinnedBuffers() != bm.getNumBuffers()) {
+				status = FAIL;
+				System.err.print("*** A failed batch left pages pinned\n");
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (status == OK) {
+			System.out.print("  - The pool still works\n");
+			status = pinBatch(bm, firstPid);
+		}
+
+		if (freePages(firstPid, numPages) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Prefetched pages must show up in the pool, unpinned.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 prefetches a batch of pages:\n");
+
+		int numPages = NUMBUF * 2;
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = writePages(numPages, true);
+		} catch (Exception e) {
+			System.err.print("*** Could not write " + numPages + " pages\n");
+			e.printStackTrace();
+			return false;
+		}
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+
+		try {
+			PageId[] pageIds = batch(firstPid);
+			bm.prefetch(pageIds);
+			long deadline = System.currentTimeMillis() + 5000;
+			for (int i = 0; status == OK && i < BATCH; i++) {
+				while (!resident(pageIds[i])
+						&& System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				if (!resident(pageIds[i])) {
+					status = FAIL;
+					System.err.print("*** Page " + pageIds[i].pid
+							+ " was not prefetched\n");
+				}
+			}
+			if (bm.getNumUnpinnedBuffers() != bm.getNumBuffers()) {
+				status = FAIL;
+				System.err.print("*** Prefetch left pages pinned\n");
+			}
+			if (status == OK) {
+				status = pinBatch(bm, firstPid);
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (freePages(firstPid, numPages) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * While a run as long as the pool is being prefetched, other threads
+	 * must still find frames to pin pages in.
+	 *
+	 * @return whether test4 has passed
+	 */
+	public boolean test4() {
+
+		System.out.print("\n  Test 4 pins pages while a long run is "
+				+ "prefetched:\n");
+
+		int numPages = NUMBUF * 2;
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = writePages(numPages, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not write " + numPages + " pages\n");
+			e.printStackTrace();
+			return false;
+		}
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		HeldStore store = new HeldStore(firstPid.pid + NUMBUF);
+
+		int pinned = 0;
+		try {
+			bm.setPageStore(store);
+			PageId[] pageIds = new PageId[NUMBUF];
+			for (int i = 0; i < NUMBUF; i++) {
+				pageIds[i] = new PageId(firstPid.pid + NUMBUF + i);
+			}
+			System.out.print("  - Prefetch " + NUMBUF + " pages and hold up "
+					+ "their read\n");
+			bm.prefetch(pageIds);
+			if (!store.reading.await(5, TimeUnit.SECONDS)) {
+				status = FAIL;
+				System.err.print("*** The prefetch did not start reading\n");
+			}
+
+			System.out.print("  - Pin half as many other pages meanwhile\n");
+			Page pg = new Page();
+			for (; status == OK && pinned < NUMBUF / 2; pinned++) {
+				PageId pid = new PageId(firstPid.pid + pinned);
+				try {
+					bm.pinPage(pid, pg, false);
+				} catch (BufferPoolExceededException e) {
+					status = FAIL;
+					System.err.print("*** The prefetch left no frame for "
+							+ "page " + pid.pid + "\n");
+					break;
+				}
+				if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page "
+							+ pid.pid + "\n");
+				}
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		store.release.countDown();
+		try {
+			for (int i = 0; i < pinned; i++) {
+				bm.unpinPage(new PageId(firstPid.pid + i), false);
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			while (bm.getNumUnpinnedBuffers() != bm.getNumBuffers()
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			if (bm.getNumUnpinnedBuffers() != bm.getNumBuffers()) {
+				status = FAIL;
+				System.err.print("*** Prefetch left pages pinned\n");
+			}
+			bm.setPageStore(null);
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (freePages(firstPid, numPages) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 4 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverBatchTest bmt = new BMDriverBatchTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,330 @@
+package tests;
+
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bufmgr.BufMgr;
+
+import diskmgr.Page;
+import exceptions.BufferPoolExceededException;
+
+public class BMDriverBlockingTest extends TestDriver implements GlobalConst {
+
+	private static final int NUM_WAITERS = 4;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverBlockingTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Allocates spare pages more than there are frames and pins as many as
+	 * there are frames, so that every frame is pinned.
+	 *
+	 * @return the first of the pages, which are consecutive.
+	 */
+	private PageId fillPool(int spare) throws Exception {
+		Page pg = new Page();
+		int numPages = SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+		PageId firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages + spare);
+		for (int i = 1; i < numPages; i++) {
+			SystemDefs.JavabaseBM.pinPage(new PageId(firstPid.pid + i), pg, true);
+		}
+		return firstPid;
+	}
+
+	/** Unpins and frees the pages pinned by fillPool(1). */
+	private boolean emptyPool(PageId firstPid, int numPages) {
+		boolean status = OK;
+		for (int i = 0; i <= numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			try {
+				if (i < numPages) {
+					SystemDefs.JavabaseBM.unpinPage(pid, false);
+				}
+				SystemDefs.JavabaseBM.freePage(pid);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * With every frame pinned, a blocking pin must wait for its timeout and
+	 * then fail.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 waits for a frame that never comes:\n");
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		Page pg = new Page();
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = fillPool(1);
+		} catch (Exception e) {
+			System.err.print("*** Could not fill the buffer pool\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Pin one page too many with a timeout\n");
+		long start = System.currentTimeMillis();
+		try {
+			bm.pinPage(new PageId(firstPid.pid + NUMBUF), pg, true, 200,
+					TimeUnit.MILLISECONDS);
+			status = FAIL;
+			System.err.print("*** Pinned a page with every frame pinned\n");
+		} catch (BufferPoolExceededException e) {
+			long waited = System.currentTimeMillis() - start;
+			if (waited < 200) {
+				status = FAIL;
+				System.err.print("*** Gave up after " + waited + " ms, "
+						+ "expected at least 200 ms\n");
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (emptyPool(firstPid, NUMBUF) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * With every frame pinned, a blocking pin must succeed once another
+	 * thread unpins a page.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 waits for a frame another thread "
+				+ "unpins:\n");
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		Page pg = new Page();
+		final PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = fillPool(1);
+		} catch (Exception e) {
+			System.err.print("*** Could not fill the buffer pool\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		Thread unpinner = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+					SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+
+		System.out.print("  - Pin one page too many while a page is "
+				+ "unpinned\n");
+		PageId lastPid = new PageId(firstPid.pid + NUMBUF);
+		unpinner.start();
+		try {
+			bm.pinPage(lastPid, pg, true, 10, TimeUnit.SECONDS);
+			unpinner.join();
+			// the first page gave its frame to the last one
+			SystemDefs.JavabaseBM.unpinPage(lastPid, false);
+			SystemDefs.JavabaseBM.pinPage(firstPid, pg, false);
+		} catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Could not pin a page after a frame was "
+					+ "unpinned\n");
+			e.printStackTrace();
+		}
+
+		if (emptyPool(firstPid, NUMBUF) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Threads that wait for a frame must get one in the order they began to
+	 * wait, and a pin that does not wait must not take a frame from them.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 hands frames to " + NUM_WAITERS
+				+ " waiting threads in turn:\n");
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		Page pg = new Page();
+		final PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = fillPool(NUM_WAITERS + 1);
+		} catch (Exception e) {
+			System.err.print("*** Could not fill the buffer pool\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Start the waiting threads one after the "
+				+ "other\n");
+		final int[] served = new int[NUM_WAITERS];
+		final AtomicInteger numServed = new AtomicInteger();
+		final BufMgr waitingBm = bm;
+		Thread[] waiters = new Thread[NUM_WAITERS];
+		for (int i = 0; i < NUM_WAITERS; i++) {
+			final int id = i;
+			waiters[i] = new Thread() {
+				public void run() {
+					try {
+						waitingBm.pinPage(new PageId(firstPid.pid + NUMBUF + id),
+								new Page(), true, 10, TimeUnit.SECONDS);
+						served[numServed.getAndIncrement()] = id;
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			waiters[i].start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (waiters[i].getState() != Thread.State.TIMED_WAITING
+					&& System.currentTimeMillis() < deadline) {
+				Thread.yield();
+			}
+		}
+
+		System.out.print("  - Unpin pages one at a time, pinning another "
+				+ "page right after each\n");
+		PageId otherPid = new PageId(firstPid.pid + NUMBUF + NUM_WAITERS);
+		for (int i = 0; status == OK && i < NUM_WAITERS; i++) {
+			try {
+				bm.unpinPage(new PageId(firstPid.pid + i), false);
+				try {
+					bm.pinPage(otherPid, pg, true);
+					status = FAIL;
+					System.err.print("*** A pin that did not wait took the "
+							+ "frame\n");
+					bm.unpinPage(otherPid, false);
+				} catch (BufferPoolExceededException e) {
+				}
+				long deadline = System.currentTimeMillis() + 5000;
+				while (numServed.get() <= i
+						&& System.currentTimeMillis() < deadline) {
+					Thread.sleep(1);
+				}
+				if (numServed.get() <= i) {
+					status = FAIL;
+					System.err.print("*** No waiting thread got the frame\n");
+				} else if (served[i] != i) {
+					status = FAIL;
+					System.err.print("*** Waiter " + served[i]
+							+ " was served before waiter " + i + "\n");
+				}
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		// let every waiter go, then free the pages
+		for (int i = 0; i < NUM_WAITERS; i++) {
+			try {
+				bm.unpinPage(new PageId(firstPid.pid + i), false);
+			} catch (Exception e) {
+				// given to a waiter already
+			}
+		}
+		for (int i = 0; i < NUM_WAITERS; i++) {
+			try {
+				waiters[i].join();
+				bm.unpinPage(new PageId(firstPid.pid + NUMBUF + i), false);
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+		for (int i = 0; i <= NUMBUF + NUM_WAITERS; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			try {
+				if (i >= NUM_WAITERS && i < NUMBUF) {
+					bm.unpinPage(pid, false);
+				}
+				bm.freePage(pid);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverBlockingTest bmt = new BMDriverBlockingTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,275 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.nio.ByteBuffer;
+
+import bufmgr.BufMgr;
+import bufmgr.MappedPageStore;
+
+import diskmgr.Page;
+import exceptions.PageNotReadException;
+
+public class BMDriverChannelIOTest extends TestDriver implements GlobalConst {
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverChannelIOTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Replaces the buffer manager with a fresh one.
+	 */
+	private BufMgr freshBufMgr(boolean offHeap) throws Exception {
+		SystemDefs.JavabaseBM.flushAllPages();
+		if (SystemDefs.JavabaseBM instanceof BufMgr) {
+			((BufMgr) SystemDefs.JavabaseBM).setPageStore(null);
+		}
+		BufMgr bm = new BufMgr(NUMBUF, "bufmgr.Clock", offHeap);
+		SystemDefs.initBufMgr(bm);
+		return bm;
+	}
+
+	/**
+	 * Checks through the disk manager that a page holds a value.
+	 */
+	private boolean onDisk(PageId pid, int value) throws Exception {
+		Page page = new Page();
+		SystemDefs.JavabaseDB.read_page(pid, page);
+		return Convert.getIntValue(0, page.getpage()) == value;
+	}
+
+	/**
+	 * Writes more pages than there are frames, so that they are written and
+	 * read back through the buffer manager's page store.
+	 *
+	 * @return whether the pages were read back and are on disk.
+	 */
+	private boolean writeAndRead(BufMgr bm, boolean buffers) {
+		int numPages = NUMBUF * 2;
+		Page pg = new Page();
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = bm.newPage(pg, numPages);
+			bm.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages
+					+ " new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Write a value to each page\n");
+		for (int i = 0; status == OK && i < numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			try {
+				if (buffers) {
+					bm.pinPageBuffer(pid, true).putInt(0, pid.pid + 99999);
+				} else {
+					bm.pinPage(pid, pg, true);
+					Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+				}
+				bm.unpinPage(pid, true);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not write page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		System.out.print("  - Read that value back from each page\n");
+		for (int i = 0; status == OK && i < numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			try {
+				int data;
+				if (buffers) {
+					ByteBuffer buffer = bm.pinPageBuffer(pid, false);
+					data = buffer.getInt(0);
+				} else {
+					bm.pinPage(pid, pg, false);
+					data = Convert.getIntValue(0, pg.getpage());
+				}
+				if (data != pid.pid + 99999) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page "
+							+ pid.pid + "\n");
+				}
+				bm.unpinPage(pid, false);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not read page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		System.out.print("  - Read the first page through the disk manager\n");
+		try {
+			if (status == OK && !onDisk(firstPid, firstPid.pid + 99999)) {
+				status = FAIL;
+				System.err.print("*** The disk manager does not see a page "
+						+ "written through the page store\n");
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				bm.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Writes and reads heap frames through the channel.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 does the I/O of heap frames through "
+				+ "a FileChannel:\n");
+
+		boolean status;
+		try {
+			BufMgr bm = freshBufMgr(false);
+			bm.setChannelIO(true);
+			status = writeAndRead(bm, false);
+		} catch (Exception e) {
+			e.printStackTrace();
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Writes and reads off-heap frames through the channel, and checks that a
+	 * page past the end of the database is not read.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 does the I/O of off-heap frames through "
+				+ "a FileChannel:\n");
+
+		boolean status;
+		BufMgr bm;
+		try {
+			bm = freshBufMgr(true);
+			bm.setChannelIO(true);
+			status = writeAndRead(bm, true);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Pin a page past the end of the database\n");
+		PageId pid = new PageId(SystemDefs.JavabaseDB.db_num_pages());
+		try {
+			bm.pinPageBuffer(pid, false);
+			status = FAIL;
+			System.err.print("*** Read a page past the end of the database\n");
+		} catch (PageNotReadException e) {
+			if (bm.getNumUnpinnedBuffers() != bm.getNumBuffers()) {
+				status = FAIL;
+				System.err.print("*** A failed read left the page pinned\n");
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		try {
+			bm.setChannelIO(false);
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Writes and reads frames through a mapping of the database file.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 does the I/O of frames through a "
+				+ "mapped file:\n");
+
+		boolean status;
+		try {
+			BufMgr bm = freshBufMgr(true);
+			bm.setPageStore(new MappedPageStore(SystemDefs.JavabaseDB
+					.db_name()));
+			status = writeAndRead(bm, true);
+			bm.flushAllPages();
+			bm.setPageStore(null);
+		} catch (Exception e) {
+			e.printStackTrace();
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverChannelIOTest bmt = new BMDriverChannelIOTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
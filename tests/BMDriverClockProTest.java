@@ -0,0 +1,92 @@
+package tests;
+
+import global.GlobalConst;
+import global.SystemDefs;
+import global.TestDriver;
+
+import bufmgr.BufMgr;
+
+public class BMDriverClockProTest extends TestDriver implements GlobalConst {
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverClockProTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.ClockPro"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20);
+	}
+
+	/**
+	 * Cold pages referenced during their test period turn hot, and a scan
+	 * then only replaces cold pages.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 keeps hot pages through a scan:\n");
+
+		// E's miss turns A and B hot and evicts C; Clock would keep EFGH
+		boolean status = ReferenceStrings.keeps("bufmgr.ClockPro",
+				"ABCDABEFGH", 4, "ABGH");
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A page read in again during its test period comes back hot and grows
+	 * the cold target, which turns the hot page the hot hand finds
+	 * unreferenced cold.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 moves pages between hot and cold:\n");
+
+		// C comes back hot and A turns cold; Clock would keep CEFG
+		boolean status = ReferenceStrings.keeps("bufmgr.ClockPro",
+				"ABCDABECFG", 4, "BCFG");
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverClockProTest bmt = new BMDriverClockProTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
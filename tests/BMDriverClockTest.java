@@ -36,7 +36,8 @@ public class BMDriverClockTest extends TestDriver implements GlobalConst {
 			System.exit(1);
 		}
 
-		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20);
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20
+				+ ReferenceStrings.NUM_PAGES);
 	}
 
 	/**
@@ -488,6 +489,30 @@ public class BMDriverClockTest extends TestDriver implements GlobalConst {
 
 		return status;
 	}
+
+	/**
+	 * The hand clears the reference bit of each page it passes and evicts
+	 * the first page whose bit is already clear, so a page referenced since
+	 * the hand last passed it gets a second chance.
+	 *
+	 * @return whether test4 has passed
+	 */
+	public boolean test4() {
+
+		System.out.print("\n  Test 4 gives referenced pages a second "
+				+ "chance:\n");
+
+		boolean status = OK;
+		// every bit is set, so the hand goes round once and takes A
+		status &= ReferenceStrings.keeps("bufmgr.Clock", "ABCDE", 4, "BCDE");
+		// B is referenced again and passed over; FIFO would evict B
+		status &= ReferenceStrings.keeps("bufmgr.Clock", "ABCDEBF", 4, "BDEF");
+
+		if (status == OK)
+			System.out.print("  Test 4 completed successfully.\n");
+
+		return status;
+	}
 	
 	  /**
 	   * Used to verify whether the exception thrown from
@@ -0,0 +1,240 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bufmgr.BufMgr;
+
+import diskmgr.Page;
+
+public class BMDriverConcurrentTest extends TestDriver implements GlobalConst {
+
+	private static final int NUM_THREADS = 8;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverConcurrentTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Runs the same body in NUM_THREADS threads and waits for all of them.
+	 *
+	 * @return false if any thread failed.
+	 */
+	private boolean runThreads(final Worker worker) {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						worker.run(id);
+					} catch (Exception e) {
+						failed.set(true);
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < NUM_THREADS; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				failed.set(true);
+			}
+		}
+		return !failed.get();
+	}
+
+	private interface Worker {
+		void run(int id) throws Exception;
+	}
+
+	/**
+	 * Several threads pin and unpin the same few pages over and over. Every
+	 * frame must be unpinned at the end.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 pins the same pages from "
+				+ NUM_THREADS + " threads:\n");
+
+		final int numPages = 4;
+		final PageId firstPid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+			SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print(" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Pin and unpin the pages concurrently\n");
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				Page page = new Page();
+				for (int i = 0; i < 20000; i++) {
+					PageId pid = new PageId(firstPid.pid + i % numPages);
+					SystemDefs.JavabaseBM.pinPage(pid, page, false);
+					SystemDefs.JavabaseBM.unpinPage(pid, false);
+				}
+			}
+		});
+
+		if (status == OK
+				&& SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SystemDefs.JavabaseBM
+						.getNumBuffers()) {
+			status = FAIL;
+			System.err.print("*** "
+					+ SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+					+ " frames are unpinned, expected all of them\n");
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + (firstPid.pid + i)
+						+ "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Each thread writes and reads back its own run of pages. Together they
+	 * use more pages than there are frames, so pages are evicted and read
+	 * back while other threads are missing too.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 writes and reads pages from "
+				+ NUM_THREADS + " threads:\n");
+
+		final int pagesPerThread = NUMBUF / 2;
+		final int numPages = pagesPerThread * NUM_THREADS;
+		final PageId firstPid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+			SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print(" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Write something on each page\n");
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				Page page = new Page();
+				for (int i = 0; i < pagesPerThread; i++) {
+					PageId pid = new PageId(firstPid.pid + id * pagesPerThread
+							+ i);
+					SystemDefs.JavabaseBM.pinPage(pid, page, true);
+					Convert.setIntValue(pid.pid + 99999, 0, page.getpage());
+					SystemDefs.JavabaseBM.unpinPage(pid, true);
+				}
+			}
+		});
+
+		if (status == OK) {
+			System.out.print("  - Read that something back from each one\n");
+			status = runThreads(new Worker() {
+				public void run(int id) throws Exception {
+					Page page = new Page();
+					for (int round = 0; round < 10; round++) {
+						for (int i = 0; i < pagesPerThread; i++) {
+							PageId pid = new PageId(firstPid.pid + id
+									* pagesPerThread + i);
+							SystemDefs.JavabaseBM.pinPage(pid, page, false);
+							int data = Convert.getIntValue(0, page.getpage());
+							SystemDefs.JavabaseBM.unpinPage(pid, false);
+							if (data != pid.pid + 99999) {
+								throw new Exception("Read wrong data back from page "
+										+ pid.pid);
+							}
+						}
+					}
+				}
+			});
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + (firstPid.pid + i)
+						+ "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverConcurrentTest bmt = new BMDriverConcurrentTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
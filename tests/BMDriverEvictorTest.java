@@ -0,0 +1,389 @@
+package tests;
+
+import global.AbstractBufMgrFrameDesc;
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import bufmgr.BufMgr;
+import bufmgr.ChannelPageStore;
+
+import diskmgr.Page;
+
+public class BMDriverEvictorTest extends TestDriver implements GlobalConst {
+
+	private static final String[] REPLACERS = { "bufmgr.Clock",
+			"bufmgr.GClock", "bufmgr.LRU", "bufmgr.MRU", "bufmgr.LRUK",
+			"bufmgr.TwoQ", "bufmgr.ARC", "bufmgr.ClockPro", "bufmgr.LIRS" };
+
+	private static final int LOW_WATER = 4;
+
+	private static final int HIGH_WATER = 8;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverEvictorTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Replaces the buffer manager with a fresh one using a replacer.
+	 */
+	private BufMgr freshBufMgr(String replacerArg) throws Exception {
+		SystemDefs.JavabaseBM.flushAllPages();
+		BufMgr bm = new BufMgr(NUMBUF, replacerArg);
+		SystemDefs.initBufMgr(bm);
+		return bm;
+	}
+
+	/** @return the number of empty frames in the buffer pool. */
+	private int countEmpty() {
+		AbstractBufMgrFrameDesc[] frames = SystemDefs.JavabaseBM
+				.getFrameTable();
+		int empty = 0;
+		for (int i = 0; i < frames.length; i++) {
+			if (frames[i].getPageNo() == null) {
+				empty++;
+			}
+		}
+		return empty;
+	}
+
+	/**
+	 * Writes three times as many pages as there are frames with the evictor
+	 * running, reads them back, and checks that the evictor keeps free
+	 * frames and hands them back when it stops.
+	 *
+	 * @return whether the pages were read back.
+	 */
+	private boolean writeAndRead(BufMgr bm) {
+		int numPages = NUMBUF * 3;
+		Page pg = new Page();
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			bm.startEvictor(LOW_WATER, HIGH_WATER);
+			firstPid = bm.newPage(pg, numPages);
+			bm.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages
+					+ " new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		for (int i = 0; status == OK && i < numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			try {
+				bm.pinPage(pid, pg, true);
+				Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+				bm.unpinPage(pid, true);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not write page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		for (int i = 0; status == OK && i < numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			try {
+				bm.pinPage(pid, pg, false);
+				if (Convert.getIntValue(0, pg.getpage()) != pid.pid + 99999) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page "
+							+ pid.pid + "\n");
+				}
+				bm.unpinPage(pid, false);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not read page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			// the evictor only refills below the low watermark, so anything
+			// from there up to the high one is left after the last miss
+			long deadline = System.currentTimeMillis() + 5000;
+			while (countEmpty() < LOW_WATER
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			if (status == OK && countEmpty() < LOW_WATER) {
+				status = FAIL;
+				System.err.print("*** The evictor left only " + countEmpty()
+						+ " frames free\n");
+			}
+			bm.stopEvictor();
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		// once the evictor is stopped, every frame must be usable again
+		for (int i = 0; status == OK && i < NUMBUF; i++) {
+			try {
+				bm.pinPage(new PageId(firstPid.pid + i), pg, false);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not pin " + (i + 1)
+						+ " pages after stopping the evictor\n");
+				e.printStackTrace();
+			}
+		}
+		for (int i = 0; i < NUMBUF; i++) {
+			try {
+				bm.unpinPage(new PageId(firstPid.pid + i), false);
+			} catch (Exception e) {
+			}
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				bm.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Runs the pool with an evictor under Clock.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 serves misses from frames freed by "
+				+ "the evictor:\n");
+
+		boolean status;
+		try {
+			status = writeAndRead((BufMgr) SystemDefs.JavabaseBM);
+		} catch (Exception e) {
+			e.printStackTrace();
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Runs the pool with an evictor under every replacer.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 runs the evictor with every replacer:\n");
+
+		boolean status = OK;
+		for (int i = 0; i < REPLACERS.length; i++) {
+			System.out.print("  - " + REPLACERS[i] + "\n");
+			try {
+				if (writeAndRead(freshBufMgr(REPLACERS[i])) == FAIL) {
+					status = FAIL;
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				status = FAIL;
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A page store whose first write waits until it is released.
+	 */
+	private static class BlockingStore extends ChannelPageStore {
+
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile int blockedPid = -1;
+
+		BlockingStore() throws IOException {
+			super(SystemDefs.JavabaseDB.db_name());
+		}
+
+		public void write(PageId pageId, ByteBuffer buffer) throws IOException {
+			boolean first;
+			synchronized (this) {
+				first = blockedPid == -1;
+				if (first) {
+					blockedPid = pageId.pid;
+				}
+			}
+			if (first) {
+				writing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			super.write(pageId, buffer);
+		}
+	}
+
+	/**
+	 * While the evictor is writing a dirty victim, the pages in the pool, the
+	 * victim too, must still be pinned and changed, and no change may be
+	 * lost.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 pins pages while the evictor is "
+				+ "writing:\n");
+
+		final BufMgr bm;
+		final PageId firstPid;
+		BlockingStore store;
+		boolean status = OK;
+
+		try {
+			bm = freshBufMgr("bufmgr.Clock");
+			Page pg = new Page();
+			firstPid = bm.newPage(pg, NUMBUF);
+			for (int i = 0; i < NUMBUF; i++) {
+				PageId pid = new PageId(firstPid.pid + i);
+				if (i > 0) {
+					bm.pinPage(pid, pg, true);
+				}
+				Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+				bm.unpinPage(pid, true);
+			}
+			store = new BlockingStore();
+			bm.setPageStore(store);
+			bm.startEvictor(LOW_WATER, HIGH_WATER);
+		} catch (Exception e) {
+			System.err.print("*** Could not dirty the buffer pool\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			if (!store.writing.await(5, TimeUnit.SECONDS)) {
+				status = FAIL;
+				System.err.print("*** The evictor did not write\n");
+			}
+
+			if (status == OK) {
+				System.out.print("  - Change every page, the one being "
+						+ "written too\n");
+				Thread changer = new Thread() {
+					public void run() {
+						try {
+							Page page = new Page();
+							for (int i = 0; i < NUMBUF; i++) {
+								PageId pid = new PageId(firstPid.pid + i);
+								bm.pinPage(pid, page, false);
+								Convert.setIntValue(pid.pid + 77777, 0, page
+										.getpage());
+								bm.unpinPage(pid, true);
+							}
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				changer.start();
+				changer.join(5000);
+				if (changer.isAlive()) {
+					status = FAIL;
+					System.err.print("*** Pins waited for the write\n");
+				}
+				store.release.countDown();
+				changer.join();
+			}
+			store.release.countDown();
+			bm.stopEvictor();
+			bm.flushAllPages();
+			bm.setPageStore(null);
+
+			Page page = new Page();
+			for (int i = 0; status == OK && i < NUMBUF; i++) {
+				PageId pid = new PageId(firstPid.pid + i);
+				SystemDefs.JavabaseDB.read_page(pid, page);
+				if (Convert.getIntValue(0, page.getpage()) != pid.pid + 77777) {
+					status = FAIL;
+					System.err.print("*** The change to page " + pid.pid
+							+ (pid.pid == store.blockedPid ? ", which was "
+									+ "being written," : "")
+							+ " was lost\n");
+				}
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		for (int i = 0; i < NUMBUF; i++) {
+			try {
+				bm.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverEvictorTest bmt = new BMDriverEvictorTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
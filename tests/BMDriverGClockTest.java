@@ -0,0 +1,98 @@
+package tests;
+
+import global.GlobalConst;
+import global.SystemDefs;
+import global.TestDriver;
+
+import bufmgr.BufMgr;
+
+public class BMDriverGClockTest extends TestDriver implements GlobalConst {
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverGClockTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.GClock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20);
+	}
+
+	/**
+	 * Every pin raises a page's usage count and every pass of the hand
+	 * lowers it, so a page pinned many times outlives several pages read
+	 * once, and is only evicted once its count is used up.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 evicts by usage count:\n");
+
+		boolean status = OK;
+		// Clock would evict A
+		status &= ReferenceStrings.keeps("bufmgr.GClock", "AAAABCD", 3, "ACD");
+		status &= ReferenceStrings.keeps("bufmgr.GClock",
+				"AAAABCDEFG", 3, "AFG");
+		status &= ReferenceStrings.keeps("bufmgr.GClock",
+				"AAAABCDEFGH", 3, "FGH");
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * The usage count is capped at the maximum, so pins beyond it do not
+	 * keep a page any longer.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 caps the usage count:\n");
+
+		System.setProperty("bufmgr.GClock.maxUsage", "2");
+		// with the default maximum A would stay
+		boolean status = ReferenceStrings.keeps("bufmgr.GClock",
+				"AAAABCDEF", 3, "DEF");
+		System.clearProperty("bufmgr.GClock.maxUsage");
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverGClockTest bmt = new BMDriverGClockTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
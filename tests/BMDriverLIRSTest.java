@@ -0,0 +1,94 @@
+package tests;
+
+import global.GlobalConst;
+import global.SystemDefs;
+import global.TestDriver;
+
+import bufmgr.BufMgr;
+
+public class BMDriverLIRSTest extends TestDriver implements GlobalConst {
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverLIRSTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.LIRS"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20);
+	}
+
+	/**
+	 * A loop over one page more than there are frames misses on every
+	 * reference under LRU. Under LIRS the LIR pages stay resident and only
+	 * the one HIR frame is cycled, so every pass after the first hits on
+	 * them.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 hits in a loop larger than the pool:\n");
+
+		// A, B and C are LIR and hit on the second and third pass
+		boolean status = ReferenceStrings.keeps("bufmgr.LIRS",
+				"ABCDEABCDEABCDE", 4, "ABCE", 6);
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A page evicted from Q and read in again while it is still in S has a
+	 * shorter reuse distance than the bottom LIR page, and takes its place.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 swaps an HIR page with the bottom LIR "
+				+ "page:\n");
+
+		// D comes back LIR and A turns HIR; LRU would keep CDEF
+		boolean status = ReferenceStrings.keeps("bufmgr.LIRS",
+				"ABCDEDF", 4, "BCDF", 0);
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverLIRSTest bmt = new BMDriverLIRSTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
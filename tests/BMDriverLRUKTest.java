@@ -0,0 +1,119 @@
+package tests;
+
+import global.GlobalConst;
+import global.SystemDefs;
+import global.TestDriver;
+
+import bufmgr.BufMgr;
+
+public class BMDriverLRUKTest extends TestDriver implements GlobalConst {
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverLRUKTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.LRUK"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20);
+	}
+
+	/**
+	 * Runs a reference string under LRU-K, as ReferenceStrings.evicts does.
+	 *
+	 * @param k
+	 *            K of the LRU-K replacer.
+	 * @param crp
+	 *            its correlated reference period.
+	 */
+	private boolean evicts(String refs, char victim, int k, int crp) {
+		System.out.print("  - LRU-" + k + ", period " + crp + ":\n");
+		System.setProperty("bufmgr.LRUK.K", Integer.toString(k));
+		System.setProperty("bufmgr.LRUK.CRP", Integer.toString(crp));
+		try {
+			return ReferenceStrings.evicts("bufmgr.LRUK", refs, victim);
+		} finally {
+			System.clearProperty("bufmgr.LRUK.K");
+			System.clearProperty("bufmgr.LRUK.CRP");
+		}
+	}
+
+	/**
+	 * A page referenced once goes before pages referenced twice, even when
+	 * it was referenced more recently.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 evicts by the K-th last reference:\n");
+
+		boolean status = OK;
+		// LRU would evict A
+		status &= evicts("ABABCBD", 'C', 2, 0);
+		// with K = 1 it is LRU
+		status &= evicts("ABABCBD", 'A', 1, 0);
+		// LRU would evict B, but A's second last reference is the oldest
+		status &= evicts("ABBCACD", 'A', 2, 0);
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * References within the correlated reference period count as one, and a
+	 * page referenced within it is not evicted while anything else can be.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 honours the correlated reference "
+				+ "period:\n");
+
+		boolean status = OK;
+		// without the period C's two references would save it, and A goes
+		status &= evicts("AFAFCCAFD", 'A', 2, 0);
+		status &= evicts("AFAFCCAFD", 'C', 2, 1);
+		// P was referenced exactly one period ago, so it stays
+		status &= evicts("ABFABFPBFD", 'A', 2, 2);
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverLRUKTest bmt = new BMDriverLRUKTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,245 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bufmgr.BufMgr;
+
+import diskmgr.Page;
+
+public class BMDriverLatchTest extends TestDriver implements GlobalConst {
+
+	private static final int NUM_THREADS = 8;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverLatchTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Runs the same body in NUM_THREADS threads and waits for all of them.
+	 *
+	 * @return false if any thread failed.
+	 */
+	private boolean runThreads(final Worker worker) {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						worker.run(id);
+					} catch (Exception e) {
+						failed.set(true);
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < NUM_THREADS; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				failed.set(true);
+			}
+		}
+		return !failed.get();
+	}
+
+	private interface Worker {
+		void run(int id) throws Exception;
+	}
+
+	/**
+	 * Several threads add one to a counter on the same page, each under an
+	 * exclusive latch. No increment may be lost.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 updates a page under exclusive latches from "
+				+ NUM_THREADS + " threads:\n");
+
+		final int increments = 5000;
+		final PageId pid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			pid = SystemDefs.JavabaseBM.newPage(pg, 1);
+			Convert.setIntValue(0, 0, pg.getpage());
+			SystemDefs.JavabaseBM.unpinPage(pid, true);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate a new page in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Increment the counter concurrently\n");
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+				Page page = new Page();
+				for (int i = 0; i < increments; i++) {
+					bm.pinPage(pid, page, false, BufMgr.LATCH_EXCLUSIVE);
+					int count = Convert.getIntValue(0, page.getpage());
+					Convert.setIntValue(count + 1, 0, page.getpage());
+					bm.unpinPage(pid, true, BufMgr.LATCH_EXCLUSIVE);
+				}
+			}
+		});
+
+		if (status == OK) {
+			try {
+				SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+				int count = Convert.getIntValue(0, pg.getpage());
+				SystemDefs.JavabaseBM.unpinPage(pid, false);
+				if (count != NUM_THREADS * increments) {
+					status = FAIL;
+					System.err.print("*** Counter is " + count + ", expected "
+							+ NUM_THREADS * increments + "\n");
+				}
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			SystemDefs.JavabaseBM.freePage(pid);
+		} catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Error freeing page " + pid.pid + "\n");
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Half of the threads write the same value into two places on a few
+	 * pages under exclusive latches; the other half check under shared
+	 * latches that the two places always agree.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 mixes shared and exclusive latches from "
+				+ NUM_THREADS + " threads:\n");
+
+		final int numPages = 4;
+		final PageId firstPid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+			SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print(" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Read and write the pages concurrently\n");
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+				Page page = new Page();
+				for (int i = 0; i < 5000; i++) {
+					PageId pid = new PageId(firstPid.pid + i % numPages);
+					if (id % 2 == 0) {
+						bm.pinPage(pid, page, false, BufMgr.LATCH_EXCLUSIVE);
+						int value = id * 100000 + i;
+						Convert.setIntValue(value, 0, page.getpage());
+						Convert.setIntValue(value, 4, page.getpage());
+						bm.unpinPage(pid, true, BufMgr.LATCH_EXCLUSIVE);
+					} else {
+						bm.pinPage(pid, page, false, BufMgr.LATCH_SHARED);
+						int first = Convert.getIntValue(0, page.getpage());
+						int second = Convert.getIntValue(4, page.getpage());
+						bm.unpinPage(pid, false, BufMgr.LATCH_SHARED);
+						if (first != second) {
+							throw new Exception("Saw a half-written page "
+									+ pid.pid);
+						}
+					}
+				}
+			}
+		});
+
+		if (status == OK
+				&& SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SystemDefs.JavabaseBM
+						.getNumBuffers()) {
+			status = FAIL;
+			System.err.print("*** "
+					+ SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+					+ " frames are unpinned, expected all of them\n");
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + (firstPid.pid + i)
+						+ "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverLatchTest bmt = new BMDriverLatchTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
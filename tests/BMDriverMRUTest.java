@@ -36,7 +36,8 @@ public class BMDriverMRUTest extends TestDriver implements GlobalConst {
 			System.exit(1);
 		}
 
-		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20);
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF + 20
+				+ ReferenceStrings.NUM_PAGES);
 	}
 
 	/**
@@ -488,6 +489,30 @@ public class BMDriverMRUTest extends TestDriver implements GlobalConst {
 
 		return status;
 	}
+
+	/**
+	 * The page unpinned last goes first, so a page just read in is the next
+	 * victim, and older pages stay.
+	 *
+	 * @return whether test4 has passed
+	 */
+	public boolean test4() {
+
+		System.out.print("\n  Test 4 evicts the most recently used page:\n");
+
+		boolean status = OK;
+		// LRU would evict A
+		status &= ReferenceStrings.keeps("bufmgr.MRU", "ABCDE", 4, "ABCE");
+		// E was the last used, so F evicts it rather than anything older
+		status &= ReferenceStrings.keeps("bufmgr.MRU", "ABCDEF", 4, "ABCF");
+		// B was used again last; LRU would evict C
+		status &= ReferenceStrings.keeps("bufmgr.MRU", "ABCDABE", 4, "ACDE");
+
+		if (status == OK)
+			System.out.print("  Test 4 completed successfully.\n");
+
+		return status;
+	}
 	
 	  /**
 	   * Used to verify whether the exception thrown from
@@ -0,0 +1,279 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import bufmgr.BufMgr;
+
+import diskmgr.Page;
+import exceptions.PagePinnedException;
+
+public class BMDriverOffHeapTest extends TestDriver implements GlobalConst {
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverOffHeapTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock", true));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Writes more pages than there are frames through ByteBuffers, so that
+	 * every page is evicted at least once, and reads them back.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 writes and reads pages through "
+				+ "off-heap frames:\n");
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		Page pg = new Page();
+		int numPages = NUMBUF * 2;
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = bm.newPage(pg, numPages);
+			bm.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages
+					+ " new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Write a value to each page\n");
+		for (int i = 0; status == OK && i < numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			try {
+				ByteBuffer data = bm.pinPageBuffer(pid, true);
+				if (data.isDirect() == false
+						|| data.capacity() != MINIBASE_PAGESIZE) {
+					status = FAIL;
+					System.err.print("*** Page " + pid.pid
+							+ " is not an off-heap frame\n");
+				}
+				data.putInt(0, pid.pid + 99999);
+				data.putInt(MINIBASE_PAGESIZE - 4, pid.pid);
+				bm.unpinPage(pid, true);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not write page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		System.out.print("  - Read that value back from each page\n");
+		for (int i = 0; status == OK && i < numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			try {
+				ByteBuffer data = bm.pinPageBuffer(pid, false);
+				if (data.getInt(0) != pid.pid + 99999
+						|| data.getInt(MINIBASE_PAGESIZE - 4) != pid.pid) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page "
+							+ pid.pid + "\n");
+				}
+				bm.unpinPage(pid, false);
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Could not read page " + pid.pid + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				bm.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A page pinned through a Page gets a heap copy that is written back when
+	 * it is unpinned, and cannot be pinned through a Page while it is pinned
+	 * off the heap.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 mixes Page and ByteBuffer pins:\n");
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		Page pg = new Page();
+		PageId pid;
+		boolean status = OK;
+
+		try {
+			pid = bm.newPage(pg, 1);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate a new page\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			System.out.print("  - Write the page through a Page\n");
+			Convert.setIntValue(4711, 0, pg.getpage());
+			ByteBuffer data = bm.pinPageBuffer(pid, false);
+			if (data.getInt(0) != 4711) {
+				status = FAIL;
+				System.err.print("*** The buffer does not share the Page's "
+						+ "bytes\n");
+			}
+			bm.unpinPage(pid, false);
+			bm.unpinPage(pid, true);
+
+			System.out.print("  - Read it back through a ByteBuffer\n");
+			data = bm.pinPageBuffer(pid, false);
+			if (data.getInt(0) != 4711) {
+				status = FAIL;
+				System.err.print("*** The Page's changes were not written "
+						+ "back\n");
+			}
+
+			System.out.print("  - Pin it through a Page meanwhile\n");
+			try {
+				bm.pinPage(pid, pg, false);
+				status = FAIL;
+				System.err.print("*** Pinned a page through a Page while it "
+						+ "was pinned off the heap\n");
+			} catch (PagePinnedException e) {
+			}
+			bm.unpinPage(pid, false);
+			if (bm.getNumUnpinnedBuffers() != bm.getNumBuffers()) {
+				status = FAIL;
+				System.err.print("*** A failed pin left the page pinned\n");
+			}
+			bm.freePage(pid);
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Pinning a page through a ByteBuffer must not allocate a copy of it,
+	 * however often the page is pinned and unpinned.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 pins off-heap pages without copying "
+				+ "them:\n");
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.out.print("  - This JVM does not count allocations\n");
+			System.out.print("  Test 3 completed successfully.\n");
+			return OK;
+		}
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		Page pg = new Page();
+		int pins = 1000;
+		PageId pid;
+		boolean status = OK;
+
+		try {
+			pid = bm.newPage(pg, 1);
+			bm.unpinPage(pid, true);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate a new page\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			System.out.print("  - Pin and unpin the page " + pins
+					+ " times\n");
+			long allocated = 0;
+			for (int pass = 0; pass < 2; pass++) {
+				// the first pass warms the code up
+				allocated = threads.getThreadAllocatedBytes(Thread
+						.currentThread().getId());
+				for (int i = 0; i < pins; i++) {
+					ByteBuffer data = bm.pinPageBuffer(pid, false);
+					data.putInt(0, i);
+					bm.unpinPage(pid, false);
+				}
+				allocated = threads.getThreadAllocatedBytes(Thread
+						.currentThread().getId())
+						- allocated;
+			}
+			// a new buffer object per pin, but no copy of the page
+			if (allocated >= (long) pins * MINIBASE_PAGESIZE / 4) {
+				status = FAIL;
+				System.err.print("*** " + pins + " pins allocated "
+						+ allocated + " bytes\n");
+			}
+			bm.freePage(pid);
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverOffHeapTest bmt = new BMDriverOffHeapTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
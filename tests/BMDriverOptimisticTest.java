@@ -0,0 +1,356 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bufmgr.BufMgr;
+
+import diskmgr.Page;
+
+public class BMDriverOptimisticTest extends TestDriver implements GlobalConst {
+
+	private static final int NUM_THREADS = 8;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverOptimisticTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Runs the same body in NUM_THREADS threads and waits for all of them.
+	 *
+	 * @return false if any thread failed.
+	 */
+	private boolean runThreads(final Worker worker) {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						worker.run(id);
+					} catch (Exception e) {
+						failed.set(true);
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < NUM_THREADS; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				failed.set(true);
+			}
+		}
+		return !failed.get();
+	}
+
+	private interface Worker {
+		void run(int id) throws Exception;
+	}
+
+	/**
+	 * Reads a page optimistically, then again after it has been evicted.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 reads a page without pinning it:\n");
+
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		int numPages = NUMBUF + 1;
+		Page pg = new Page();
+		PageId pid;
+		boolean status = OK;
+
+		try {
+			pid = bm.newPage(pg, numPages);
+			Convert.setIntValue(777, 0, pg.getpage());
+			bm.unpinPage(pid, true);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print(" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Read the page while it is in the pool\n");
+		try {
+			Page page = new Page();
+			long stamp = bm.tryOptimisticRead(pid, page);
+			int data = Convert.getIntValue(0, page.getpage());
+			if (stamp == 0 || !bm.validate(pid, stamp)) {
+				status = FAIL;
+				System.err.print("*** Could not read an unchanged page\n");
+			} else if (data != 777) {
+				status = FAIL;
+				System.err.print("*** Read " + data + ", expected 777\n");
+			}
+			if (bm.getNumUnpinnedBuffers() != bm.getNumBuffers()) {
+				status = FAIL;
+				System.err.print("*** An optimistic read pinned a frame\n");
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (status == OK) {
+			System.out.print("  - Evict the page in the middle of a read\n");
+			try {
+				Page page = new Page();
+				long stamp = bm.tryOptimisticRead(pid, page);
+				for (int i = 1; i < numPages; i++) {
+					PageId other = new PageId(pid.pid + i);
+					bm.pinPage(other, pg, true);
+					bm.unpinPage(other, false);
+				}
+				if (bm.validate(pid, stamp)) {
+					status = FAIL;
+					System.err.print("*** Validated a read of an evicted page\n");
+				}
+				if (bm.tryOptimisticRead(pid, page) != 0) {
+					status = FAIL;
+					System.err.print("*** Started a read of a page not in the pool\n");
+				}
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				bm.freePage(new PageId(pid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + (pid.pid + i)
+						+ "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Half of the threads write the same value into two places on a page
+	 * under the exclusive latch; the other half read the page
+	 * optimistically. No validated read may see the two places differ.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 reads optimistically while "
+				+ NUM_THREADS / 2 + " threads write:\n");
+
+		final PageId pid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			pid = SystemDefs.JavabaseBM.newPage(pg, 1);
+			SystemDefs.JavabaseBM.unpinPage(pid, true);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate a new page in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Read and write the page concurrently\n");
+		final AtomicInteger validated = new AtomicInteger();
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+				Page page = new Page();
+				for (int i = 0; i < 20000; i++) {
+					if (id % 2 == 0) {
+						bm.pinPage(pid, page, false, BufMgr.LATCH_EXCLUSIVE);
+						int value = id * 100000 + i;
+						Convert.setIntValue(value, 0, page.getpage());
+						Convert.setIntValue(value, 4, page.getpage());
+						bm.unpinPage(pid, true, BufMgr.LATCH_EXCLUSIVE);
+					} else {
+						long stamp = bm.tryOptimisticRead(pid, page);
+						int first = Convert.getIntValue(0, page.getpage());
+						int second = Convert.getIntValue(4, page.getpage());
+						if (bm.validate(pid, stamp)) {
+							validated.incrementAndGet();
+							if (first != second) {
+								throw new Exception("Validated a half-written page");
+							}
+						}
+					}
+				}
+			}
+		});
+
+		if (status == OK && validated.get() == 0) {
+			status = FAIL;
+			System.err.print("*** No optimistic read was ever valid\n");
+		}
+
+		try {
+			SystemDefs.JavabaseBM.freePage(pid);
+		} catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Error freeing page " + pid.pid + "\n");
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Like test2, but the writers pin the page without latching it, and
+	 * unpin it dirty. A read made while a writer has the page pinned, or
+	 * across a writer's unpin, must not validate. The writers take turns
+	 * through a lock of their own, which the buffer manager knows nothing
+	 * of, so that they do not mix their values on the page.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 reads optimistically while "
+				+ NUM_THREADS / 2 + " threads write without a latch:\n");
+
+		final PageId pid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			pid = SystemDefs.JavabaseBM.newPage(pg, 1);
+			SystemDefs.JavabaseBM.unpinPage(pid, true);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate a new page in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Change the page in the middle of a read\n");
+		try {
+			BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+			Page page = new Page();
+			long stamp = bm.tryOptimisticRead(pid, page);
+			bm.pinPage(pid, pg, false);
+			// both places, so that the page is whole again once unpinned
+			Convert.setIntValue(4711, 0, pg.getpage());
+			Convert.setIntValue(4711, 4, pg.getpage());
+			if (bm.validate(pid, stamp)) {
+				status = FAIL;
+				System.err.print("*** Validated a read while the page was "
+						+ "pinned by a writer\n");
+			}
+			bm.unpinPage(pid, true);
+			if (bm.validate(pid, stamp)) {
+				status = FAIL;
+				System.err.print("*** Validated a read across a dirty "
+						+ "unpin\n");
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (status == OK) {
+			System.out.print("  - Read and write the page concurrently\n");
+			final ReentrantLock writers = new ReentrantLock();
+			status = runThreads(new Worker() {
+				public void run(int id) throws Exception {
+					BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+					Page page = new Page();
+					for (int i = 0; i < 20000; i++) {
+						if (id % 2 == 0) {
+							writers.lock();
+							try {
+								bm.pinPage(pid, page, false);
+								int value = id * 100000 + i;
+								Convert.setIntValue(value, 0, page.getpage());
+								Thread.yield();
+								Convert.setIntValue(value, 4, page.getpage());
+								bm.unpinPage(pid, true);
+							} finally {
+								writers.unlock();
+							}
+						} else {
+							long stamp = bm.tryOptimisticRead(pid, page);
+							int first = Convert.getIntValue(0, page.getpage());
+							int second = Convert.getIntValue(4, page.getpage());
+							if (bm.validate(pid, stamp) && first != second) {
+								throw new Exception("Validated a half-written page");
+							}
+						}
+					}
+				}
+			});
+		}
+
+		try {
+			SystemDefs.JavabaseBM.freePage(pid);
+		} catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Error freeing page " + pid.pid + "\n");
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverOptimisticTest bmt = new BMDriverOptimisticTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,478 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bufmgr.ChannelPageStore;
+import bufmgr.PartitionedBufMgr;
+
+import diskmgr.Page;
+
+public class BMDriverPartitionedTest extends TestDriver implements GlobalConst {
+
+	private static final int NUM_THREADS = 8;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverPartitionedTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new PartitionedBufMgr(NUMBUF,
+					"bufmgr.Clock", 4));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Runs the same body in NUM_THREADS threads and waits up to a minute
+	 * for all of them.
+	 *
+	 * @return false if any thread failed or did not finish.
+	 */
+	private boolean runThreads(final Worker worker) {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						worker.run(id);
+					} catch (Exception e) {
+						failed.set(true);
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		long deadline = System.currentTimeMillis() + 60000;
+		for (int i = 0; i < NUM_THREADS; i++) {
+			try {
+				threads[i].join(Math.max(1, deadline
+						- System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				failed.set(true);
+			}
+			if (threads[i].isAlive()) {
+				System.err.print("*** Thread " + i + " did not finish\n");
+				failed.set(true);
+			}
+		}
+		return !failed.get();
+	}
+
+	private interface Worker {
+		void run(int id) throws Exception;
+	}
+
+	/**
+	 * Several threads pin and unpin the same few pages over and over. Every
+	 * frame must be unpinned at the end.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 pins the same pages from "
+				+ NUM_THREADS + " threads:\n");
+
+		final int numPages = 4;
+		final PageId firstPid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+			SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print(" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Pin and unpin the pages concurrently\n");
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				Page page = new Page();
+				for (int i = 0; i < 20000; i++) {
+					PageId pid = new PageId(firstPid.pid + i % numPages);
+					SystemDefs.JavabaseBM.pinPage(pid, page, false);
+					SystemDefs.JavabaseBM.unpinPage(pid, false);
+				}
+			}
+		});
+
+		if (status == OK
+				&& SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SystemDefs.JavabaseBM
+						.getNumBuffers()) {
+			status = FAIL;
+			System.err.print("*** "
+					+ SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+					+ " frames are unpinned, expected all of them\n");
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + (firstPid.pid + i)
+						+ "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Each thread writes and reads back its own run of pages. Together they
+	 * use more pages than there are frames, so pages are evicted and read
+	 * back while other threads are missing too.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 writes and reads pages from "
+				+ NUM_THREADS + " threads:\n");
+
+		final int pagesPerThread = NUMBUF / 2;
+		final int numPages = pagesPerThread * NUM_THREADS;
+		final PageId firstPid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+			SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print(" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Write something on each page\n");
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				Page page = new Page();
+				for (int i = 0; i < pagesPerThread; i++) {
+					PageId pid = new PageId(firstPid.pid + id * pagesPerThread
+							+ i);
+					SystemDefs.JavabaseBM.pinPage(pid, page, true);
+					Convert.setIntValue(pid.pid + 99999, 0, page.getpage());
+					SystemDefs.JavabaseBM.unpinPage(pid, true);
+				}
+			}
+		});
+
+		if (status == OK) {
+			System.out.print("  - Read that something back from each one\n");
+			status = runThreads(new Worker() {
+				public void run(int id) throws Exception {
+					Page page = new Page();
+					for (int round = 0; round < 10; round++) {
+						for (int i = 0; i < pagesPerThread; i++) {
+							PageId pid = new PageId(firstPid.pid + id
+									* pagesPerThread + i);
+							SystemDefs.JavabaseBM.pinPage(pid, page, false);
+							int data = Convert.getIntValue(0, page.getpage());
+							SystemDefs.JavabaseBM.unpinPage(pid, false);
+							if (data != pid.pid + 99999) {
+								throw new Exception("Read wrong data back from page "
+										+ pid.pid);
+							}
+						}
+					}
+				}
+			});
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + (firstPid.pid + i)
+						+ "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Half the threads allocate, write and free pages while the other half
+	 * dirty more pages than there are frames, so that pages are allocated
+	 * and freed, which pins and unpins space map pages, while dirty victims
+	 * are written out in every partition.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 allocates and frees pages while "
+				+ "dirty pages are evicted:\n");
+
+		final int pagesPerThread = NUMBUF / 2;
+		final int numPages = pagesPerThread * NUM_THREADS / 2;
+		final PageId firstPid;
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+			SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + numPages);
+			System.err.print(" new pages in the database.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				Page page = new Page();
+				for (int round = 0; round < 20; round++) {
+					if (id % 2 == 0) {
+						for (int i = 0; i < pagesPerThread; i++) {
+							PageId pid = newPage(page);
+							SystemDefs.JavabaseBM.unpinPage(pid, true);
+							SystemDefs.JavabaseBM.freePage(pid);
+						}
+					} else {
+						for (int i = 0; i < pagesPerThread; i++) {
+							PageId pid = new PageId(firstPid.pid + id / 2
+									* pagesPerThread + i);
+							SystemDefs.JavabaseBM.pinPage(pid, page, true);
+							Convert.setIntValue(pid.pid + 99999, 0, page
+									.getpage());
+							SystemDefs.JavabaseBM.unpinPage(pid, true);
+						}
+					}
+				}
+			}
+
+			private PageId newPage(Page page) throws Exception {
+				PageId pid = SystemDefs.JavabaseBM.newPage(page, 1);
+				Convert.setIntValue(pid.pid + 99999, 0, page.getpage());
+				return pid;
+			}
+		});
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page " + (firstPid.pid + i)
+						+ "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A page store that counts the reads made of it, a run read at once
+	 * counting as one.
+	 */
+	private static class CountingStore extends ChannelPageStore {
+
+		final AtomicInteger reads = new AtomicInteger();
+
+		CountingStore() throws IOException {
+			super(SystemDefs.JavabaseDB.db_name());
+		}
+
+		public void read(PageId pageId, ByteBuffer buffer) throws IOException {
+			reads.incrementAndGet();
+			super.read(pageId, buffer);
+		}
+
+		public void readRun(PageId firstPage, ByteBuffer[] buffers)
+				throws IOException {
+			reads.incrementAndGet();
+			super.readRun(firstPage, buffers);
+		}
+	}
+
+	/**
+	 * Replaces the buffer manager with a fresh one of two partitions, each
+	 * big enough for the run of test4, reading through a CountingStore.
+	 */
+	private CountingStore freshBufMgr() throws Exception {
+		SystemDefs.JavabaseBM.flushAllPages();
+		((PartitionedBufMgr) SystemDefs.JavabaseBM).setPageStore(null);
+		PartitionedBufMgr bm = new PartitionedBufMgr(NUMBUF, "bufmgr.Clock",
+				2);
+		CountingStore store = new CountingStore();
+		bm.setPageStore(store);
+		SystemDefs.initBufMgr(bm);
+		return store;
+	}
+
+	/**
+	 * A run of consecutive pages, pinned at once or prefetched, must be read
+	 * with one read per block of pages, not one per page.
+	 *
+	 * @return whether test4 has passed
+	 */
+	public boolean test4() {
+
+		System.out.print("\n  Test 4 reads runs of pages across "
+				+ "partitions:\n");
+
+		final int numBlocks = 3;
+		final int numPages = numBlocks * PartitionedBufMgr.BLOCK_PAGES;
+		final int allocated = numPages + PartitionedBufMgr.BLOCK_PAGES;
+		PageId allocatedPid;
+		PageId[] pageIds = new PageId[numPages];
+		Page pg = new Page();
+		boolean status = OK;
+
+		try {
+			allocatedPid = SystemDefs.JavabaseBM.newPage(pg, allocated);
+			SystemDefs.JavabaseBM.unpinPage(allocatedPid, false);
+			// the run starts a block
+			int firstPid = (allocatedPid.pid + PartitionedBufMgr.BLOCK_PAGES - 1)
+					/ PartitionedBufMgr.BLOCK_PAGES
+					* PartitionedBufMgr.BLOCK_PAGES;
+			for (int i = 0; i < numPages; i++) {
+				pageIds[i] = new PageId(firstPid + i);
+				SystemDefs.JavabaseBM.pinPage(pageIds[i], pg, true);
+				Convert.setIntValue(pageIds[i].pid + 99999, 0, pg.getpage());
+				SystemDefs.JavabaseBM.unpinPage(pageIds[i], true);
+			}
+		} catch (Exception e) {
+			System.err.print("*** Could not write " + numPages + " pages\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			System.out.print("  - Pin " + numPages + " consecutive pages "
+					+ "at once\n");
+			CountingStore store = freshBufMgr();
+			PartitionedBufMgr bm = (PartitionedBufMgr) SystemDefs.JavabaseBM;
+			Page[] pages = bm.pinPages(pageIds);
+			for (int i = 0; i < numPages; i++) {
+				int data = Convert.getIntValue(0, pages[i].getpage());
+				if (data != pageIds[i].pid + 99999) {
+					status = FAIL;
+					System.err.print("*** Read wrong data back from page "
+							+ pageIds[i].pid + "\n");
+				}
+				bm.unpinPage(pageIds[i], false);
+			}
+			if (store.reads.get() > numBlocks) {
+				status = FAIL;
+				System.err.print("*** " + numPages + " pages took "
+						+ store.reads.get() + " reads\n");
+			}
+
+			System.out.print("  - Prefetch them\n");
+			store = freshBufMgr();
+			bm = (PartitionedBufMgr) SystemDefs.JavabaseBM;
+			bm.prefetch(pageIds);
+			long deadline = System.currentTimeMillis() + 5000;
+			for (int i = 0; status == OK && i < numPages; i++) {
+				while (bm.tryOptimisticRead(pageIds[i], new Page()) == 0
+						&& System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				if (bm.tryOptimisticRead(pageIds[i], new Page()) == 0) {
+					status = FAIL;
+					System.err.print("*** Page " + pageIds[i].pid
+							+ " was not prefetched\n");
+				}
+			}
+			bm.stopReadAhead();
+			if (store.reads.get() > numBlocks) {
+				status = FAIL;
+				System.err.print("*** " + numPages + " pages took "
+						+ store.reads.get() + " reads\n");
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		try {
+			((PartitionedBufMgr) SystemDefs.JavabaseBM).setPageStore(null);
+			SystemDefs.initBufMgr(new PartitionedBufMgr(NUMBUF, "bufmgr.Clock",
+					4));
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+		for (int i = 0; i < allocated; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(allocatedPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				System.err.print("*** Error freeing page "
+						+ (allocatedPid.pid + i) + "\n");
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 4 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverPartitionedTest bmt = new BMDriverPartitionedTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,374 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import bufmgr.BufMgr;
+
+import diskmgr.Page;
+
+public class BMDriverReadAheadTest extends TestDriver implements GlobalConst {
+
+	private static final int INITIAL_WINDOW = 4;
+
+	private static final int MAX_WINDOW = NUMBUF / 4;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverReadAheadTest() {
+		super("Buffer Manager");
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+	}
+
+	/**
+	 * Writes pages, each holding a value, and replaces the buffer manager
+	 * with a fresh Clock one running read-ahead, so that none of the pages
+	 * is in the pool.
+	 *
+	 * @return the first of the pages, which are consecutive.
+	 */
+	private PageId writePages(int numPages) throws Exception {
+		return writePages(numPages, "bufmgr.Clock");
+	}
+
+	/**
+	 * Like writePages(int), with a fresh buffer manager using the given
+	 * replacer.
+	 */
+	private PageId writePages(int numPages, String replacer) throws Exception {
+		Page pg = new Page();
+		PageId firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+		for (int i = 0; i < numPages; i++) {
+			PageId pid = new PageId(firstPid.pid + i);
+			if (i > 0) {
+				SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+			}
+			Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+			SystemDefs.JavabaseBM.unpinPage(pid, true);
+		}
+		SystemDefs.JavabaseBM.flushAllPages();
+
+		BufMgr bm = new BufMgr(NUMBUF, replacer);
+		SystemDefs.initBufMgr(bm);
+		bm.startReadAhead(INITIAL_WINDOW, MAX_WINDOW);
+		return firstPid;
+	}
+
+	/** @return whether a page is in the buffer pool. */
+	private boolean resident(PageId pid) {
+		return ((BufMgr) SystemDefs.JavabaseBM).tryOptimisticRead(pid,
+				new Page()) != 0;
+	}
+
+	/**
+	 * Waits up to five seconds for a page to be read into the pool.
+	 *
+	 * @return whether it was.
+	 */
+	private boolean awaitResident(PageId pid) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!resident(pid) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return resident(pid);
+	}
+
+	/**
+	 * Pins and unpins a page, checking the value written to it.
+	 */
+	private boolean readPage(PageId pid) {
+		Page pg = new Page();
+		try {
+			SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+			int data = Convert.getIntValue(0, pg.getpage());
+			SystemDefs.JavabaseBM.unpinPage(pid, false);
+			if (data != pid.pid + 99999) {
+				System.err.print("*** Read wrong data back from page "
+						+ pid.pid + "\n");
+				return false;
+			}
+			return true;
+		} catch (Exception e) {
+			System.err.print("*** Could not read page " + pid.pid + "\n");
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private boolean freePages(PageId firstPid, int numPages) {
+		boolean status = OK;
+		try {
+			((BufMgr) SystemDefs.JavabaseBM).stopReadAhead();
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * A scan must find the pages after the ones it pinned in the pool,
+	 * unpinned, and read correct data all the way through.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 reads ahead of a sequential scan:\n");
+
+		int numPages = NUMBUF * 2;
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = writePages(numPages);
+		} catch (Exception e) {
+			System.err.print("*** Could not write " + numPages + " pages\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			System.out.print("  - Pin the first pages in order\n");
+			for (int i = 0; status == OK && i <= INITIAL_WINDOW; i++) {
+				status = readPage(new PageId(firstPid.pid + i));
+			}
+
+			System.out.print("  - Wait for the next pages to be read ahead\n");
+			PageId ahead = new PageId(firstPid.pid + INITIAL_WINDOW + 1);
+			if (status == OK && !awaitResident(ahead)) {
+				status = FAIL;
+				System.err.print("*** Page " + ahead.pid
+						+ " was not read ahead\n");
+			}
+			if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SystemDefs.JavabaseBM
+					.getNumBuffers()) {
+				status = FAIL;
+				System.err.print("*** Read-ahead left pages pinned\n");
+			}
+
+			System.out.print("  - Scan the rest of the pages\n");
+			for (int i = INITIAL_WINDOW + 1; status == OK && i < numPages; i++) {
+				status = readPage(new PageId(firstPid.pid + i));
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (freePages(firstPid, numPages) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Pins that do not follow each other must not read anything ahead.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 does not read ahead of random pins:\n");
+
+		int numPages = NUMBUF * 2;
+		PageId firstPid;
+		boolean status = OK;
+
+		try {
+			firstPid = writePages(numPages);
+		} catch (Exception e) {
+			System.err.print("*** Could not write " + numPages + " pages\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			System.out.print("  - Pin every third page backwards\n");
+			for (int i = numPages - 1; status == OK && i >= 0; i -= 3) {
+				status = readPage(new PageId(firstPid.pid + i));
+			}
+			// give a wrong read-ahead time to happen
+			Thread.sleep(100);
+			for (int i = numPages - 2; status == OK && i >= 0; i -= 3) {
+				if (resident(new PageId(firstPid.pid + i))) {
+					status = FAIL;
+					System.err.print("*** Page " + (firstPid.pid + i)
+							+ " was read ahead\n");
+				}
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (freePages(firstPid, numPages) == FAIL) {
+			status = FAIL;
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A window of more than a quarter of the pool must be refused.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 refuses a window too large for the "
+				+ "pool:\n");
+
+		boolean status = OK;
+		BufMgr bm = (BufMgr) SystemDefs.JavabaseBM;
+		try {
+			bm.startReadAhead(INITIAL_WINDOW, NUMBUF / 4 + 1);
+			status = FAIL;
+			System.err.print("*** Started read-ahead with a window of "
+					+ (NUMBUF / 4 + 1) + " pages\n");
+		} catch (IllegalArgumentException e) {
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+		try {
+			bm.stopReadAhead();
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * Under every replacer that ranks pages, a page read ahead and never
+	 * pinned must be the victim of the next miss rather than a page that
+	 * was used.
+	 *
+	 * @return whether test4 has passed
+	 */
+	public boolean test4() {
+
+		System.out.print("\n  Test 4 evicts pages read ahead before pages "
+				+ "in use:\n");
+
+		String[] replacers = { "bufmgr.Clock", "bufmgr.GClock", "bufmgr.LRU",
+				"bufmgr.LRUK", "bufmgr.TwoQ", "bufmgr.ARC", "bufmgr.LIRS" };
+		int numPages = NUMBUF + 1;
+		boolean status = OK;
+
+		for (int r = 0; status == OK && r < replacers.length; r++) {
+			System.out.print("  - " + replacers[r] + "\n");
+			PageId firstPid;
+			try {
+				firstPid = writePages(numPages, replacers[r]);
+			} catch (Exception e) {
+				System.err.print("*** Could not write " + numPages
+						+ " pages\n");
+				e.printStackTrace();
+				return false;
+			}
+
+			try {
+				// backwards, so that nothing is read ahead of them
+				for (int i = NUMBUF - 2; status == OK && i >= 0; i--) {
+					status = readPage(new PageId(firstPid.pid + i));
+				}
+				PageId prefetched = new PageId(firstPid.pid + NUMBUF - 1);
+				if (status == OK) {
+					((BufMgr) SystemDefs.JavabaseBM)
+							.prefetch(new PageId[] { prefetched });
+					if (!awaitResident(prefetched)) {
+						status = FAIL;
+						System.err.print("*** Page " + prefetched.pid
+								+ " was not prefetched\n");
+					}
+				}
+				if (status == OK) {
+					status = readPage(new PageId(firstPid.pid + NUMBUF));
+				}
+				if (status == OK && resident(prefetched)) {
+					status = FAIL;
+					System.err.print("*** " + replacers[r]
+							+ " kept the page read ahead\n");
+				}
+				for (int i = 0; status == OK && i < NUMBUF - 1; i++) {
+					if (!resident(new PageId(firstPid.pid + i))) {
+						status = FAIL;
+						System.err.print("*** " + replacers[r]
+								+ " evicted page " + (firstPid.pid + i)
+								+ ", which was used\n");
+					}
+				}
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+
+			if (freePages(firstPid, numPages) == FAIL) {
+				status = FAIL;
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 4 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverReadAheadTest bmt = new BMDriverReadAheadTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,453 @@
+package tests;
+
+import global.Convert;
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+import global.TestDriver;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bufmgr.BufMgr;
+
+import diskmgr.DB;
+import diskmgr.Page;
+import exceptions.FileIOException;
+import exceptions.InvalidPageNumberException;
+import exceptions.PageNotReadException;
+
+public class BMDriverSingleFlightTest extends TestDriver implements GlobalConst {
+
+	private static final int NUM_THREADS = 8;
+
+	private boolean OK = true;
+
+	private boolean FAIL = false;
+
+	/**
+	 * BMDriver Constructor, inherited from TestDriver
+	 */
+	public BMDriverSingleFlightTest() {
+		super("Buffer Manager");
+	}
+
+	private CountingDB db;
+
+	/**
+	 * A database that counts the reads of one page, makes them slow so that
+	 * other threads pile up behind them, and can be told to fail them. It
+	 * can also hold up the next write until it is released.
+	 */
+	private static class CountingDB extends DB {
+		volatile int watchedPid = -1;
+		volatile boolean failReads = false;
+		final AtomicInteger reads = new AtomicInteger();
+		volatile CountDownLatch writing = null;
+		volatile CountDownLatch release = null;
+
+		public void write_page(PageId pageno, Page apage)
+				throws InvalidPageNumberException, FileIOException, IOException {
+			CountDownLatch started = writing;
+			if (started != null) {
+				writing = null;
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			super.write_page(pageno, apage);
+		}
+
+		public void read_page(PageId pageno, Page apage)
+				throws InvalidPageNumberException, FileIOException, IOException {
+			if (pageno.pid == watchedPid) {
+				reads.incrementAndGet();
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				if (failReads) {
+					throw new IOException("read of page " + pageno.pid
+							+ " failed on purpose");
+				}
+			}
+			super.read_page(pageno, apage);
+		}
+	}
+
+	public void initBeforeTests() {
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		} catch (Exception ire) {
+			ire.printStackTrace();
+			System.exit(1);
+		}
+
+		SystemDefs.initDiskMgr("BMDriver", NUMBUF * 4 + 20);
+		try {
+			db = new CountingDB();
+			db.openDB(SystemDefs.JavabaseDBName);
+			SystemDefs.JavabaseDB = db;
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Writes a value on a new page and starts over with an empty buffer pool,
+	 * so that the page has to be read back in.
+	 *
+	 * @return the page.
+	 */
+	private PageId preparePage(int value) throws Exception {
+		Page pg = new Page();
+		PageId pid = SystemDefs.JavabaseBM.newPage(pg, 1);
+		Convert.setIntValue(value, 0, pg.getpage());
+		SystemDefs.JavabaseBM.unpinPage(pid, true);
+		SystemDefs.JavabaseBM.flushAllPages();
+		SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+		db.watchedPid = pid.pid;
+		db.reads.set(0);
+		return pid;
+	}
+
+	/**
+	 * Runs the same body in NUM_THREADS threads and waits for all of them.
+	 *
+	 * @return false if any thread failed.
+	 */
+	private boolean runThreads(final Worker worker) {
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						worker.run(id);
+					} catch (Exception e) {
+						failed.set(true);
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < NUM_THREADS; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				failed.set(true);
+			}
+		}
+		return !failed.get();
+	}
+
+	private interface Worker {
+		void run(int id) throws Exception;
+	}
+
+	/**
+	 * All threads pin the same page, which is not in the buffer pool, at the
+	 * same time. The page must be read once, and every thread must see it.
+	 *
+	 * @return whether test1 has passed
+	 */
+	public boolean test1() {
+
+		System.out.print("\n  Test 1 misses on one page from " + NUM_THREADS
+				+ " threads:\n");
+
+		final PageId pid;
+		boolean status = OK;
+
+		try {
+			pid = preparePage(4242);
+		} catch (Exception e) {
+			System.err.print("*** Could not prepare a page on disk.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Pin the page concurrently\n");
+		final CountDownLatch start = new CountDownLatch(1);
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				Page page = new Page();
+				start.countDown();
+				start.await();
+				SystemDefs.JavabaseBM.pinPage(pid, page, false);
+				int data = Convert.getIntValue(0, page.getpage());
+				SystemDefs.JavabaseBM.unpinPage(pid, false);
+				if (data != 4242) {
+					throw new Exception("Read " + data + " from page " + pid.pid);
+				}
+			}
+		});
+
+		if (status == OK && db.reads.get() != 1) {
+			status = FAIL;
+			System.err.print("*** The page was read " + db.reads.get()
+					+ " times, expected once\n");
+		}
+
+		try {
+			SystemDefs.JavabaseBM.freePage(pid);
+		} catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Error freeing page " + pid.pid + "\n");
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 1 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * All threads pin the same page at the same time and its read fails.
+	 * Every thread must get the error, no frame may stay pinned, and the page
+	 * must be readable once the disk is back.
+	 *
+	 * @return whether test2 has passed
+	 */
+	public boolean test2() {
+
+		System.out.print("\n  Test 2 fails a read that " + NUM_THREADS
+				+ " threads wait for:\n");
+
+		final PageId pid;
+		boolean status = OK;
+
+		try {
+			pid = preparePage(2424);
+		} catch (Exception e) {
+			System.err.print("*** Could not prepare a page on disk.\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		System.out.print("  - Pin the page concurrently while reads fail\n");
+		db.failReads = true;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger failures = new AtomicInteger();
+		status = runThreads(new Worker() {
+			public void run(int id) throws Exception {
+				Page page = new Page();
+				start.countDown();
+				start.await();
+				try {
+					SystemDefs.JavabaseBM.pinPage(pid, page, false);
+					SystemDefs.JavabaseBM.unpinPage(pid, false);
+				} catch (PageNotReadException e) {
+					failures.incrementAndGet();
+				}
+			}
+		});
+		db.failReads = false;
+
+		if (status == OK && failures.get() != NUM_THREADS) {
+			status = FAIL;
+			System.err.print("*** " + failures.get() + " threads saw the error, "
+					+ "expected " + NUM_THREADS + "\n");
+		}
+		if (status == OK
+				&& SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SystemDefs.JavabaseBM
+						.getNumBuffers()) {
+			status = FAIL;
+			System.err.print("*** "
+					+ SystemDefs.JavabaseBM.getNumUnpinnedBuffers()
+					+ " frames are unpinned, expected all of them\n");
+		}
+
+		if (status == OK) {
+			System.out.print("  - Pin the page again\n");
+			try {
+				Page page = new Page();
+				SystemDefs.JavabaseBM.pinPage(pid, page, false);
+				int data = Convert.getIntValue(0, page.getpage());
+				SystemDefs.JavabaseBM.unpinPage(pid, false);
+				if (data != 2424) {
+					status = FAIL;
+					System.err.print("*** Read " + data + " from page "
+							+ pid.pid + "\n");
+				}
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			SystemDefs.JavabaseBM.freePage(pid);
+		} catch (Exception e) {
+			status = FAIL;
+			System.err.print("*** Error freeing page " + pid.pid + "\n");
+			e.printStackTrace();
+		}
+
+		if (status == OK)
+			System.out.print("  Test 2 completed successfully.\n");
+
+		return status;
+	}
+
+	/**
+	 * A miss whose victim is dirty writes it out; while the write is held
+	 * up, every other page in the pool must still be pinned, and nothing
+	 * written may be lost.
+	 *
+	 * @return whether test3 has passed
+	 */
+	public boolean test3() {
+
+		System.out.print("\n  Test 3 pins pages while a miss writes its "
+				+ "victim:\n");
+
+		final int numPages = NUMBUF + 1;
+		final PageId firstPid;
+		boolean status = OK;
+
+		try {
+			Page pg = new Page();
+			firstPid = SystemDefs.JavabaseBM.newPage(pg, numPages);
+			for (int i = 0; i < numPages; i++) {
+				PageId pid = new PageId(firstPid.pid + i);
+				if (i > 0) {
+					SystemDefs.JavabaseBM.pinPage(pid, pg, true);
+				}
+				Convert.setIntValue(pid.pid + 99999, 0, pg.getpage());
+				SystemDefs.JavabaseBM.unpinPage(pid, true);
+			}
+			SystemDefs.JavabaseBM.flushAllPages();
+			// every frame holds a dirty page, but not the first one
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, "bufmgr.Clock"));
+			for (int i = 1; i < numPages; i++) {
+				PageId pid = new PageId(firstPid.pid + i);
+				SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+				Convert.setIntValue(pid.pid + 77777, 0, pg.getpage());
+				SystemDefs.JavabaseBM.unpinPage(pid, true);
+			}
+		} catch (Exception e) {
+			System.err.print("*** Could not dirty the buffer pool\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		final CountDownLatch writing = new CountDownLatch(1);
+		db.release = new CountDownLatch(1);
+		db.writing = writing;
+		final AtomicInteger missed = new AtomicInteger();
+		Thread miss = new Thread() {
+			public void run() {
+				try {
+					Page page = new Page();
+					SystemDefs.JavabaseBM.pinPage(firstPid, page, false);
+					missed.set(Convert.getIntValue(0, page.getpage()));
+					SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+
+		try {
+			System.out.print("  - Miss on a page while the victim's write "
+					+ "is held up\n");
+			miss.start();
+			if (!writing.await(5, TimeUnit.SECONDS)) {
+				status = FAIL;
+				System.err.print("*** The miss did not write its victim\n");
+			}
+
+			if (status == OK) {
+				System.out.print("  - Pin the pages in the pool meanwhile\n");
+				Thread pinner = new Thread() {
+					public void run() {
+						try {
+							Page page = new Page();
+							for (int i = 1; i < numPages; i++) {
+								PageId pid = new PageId(firstPid.pid + i);
+								SystemDefs.JavabaseBM.pinPage(pid, page, false);
+								SystemDefs.JavabaseBM.unpinPage(pid, false);
+							}
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				};
+				pinner.start();
+				pinner.join(5000);
+				if (pinner.isAlive()) {
+					status = FAIL;
+					System.err.print("*** Pins waited for the write\n");
+				}
+				db.release.countDown();
+				pinner.join();
+			}
+			db.release.countDown();
+			miss.join();
+			db.writing = null;
+
+			if (status == OK && missed.get() != firstPid.pid + 99999) {
+				status = FAIL;
+				System.err.print("*** The miss read " + missed.get() + "\n");
+			}
+			SystemDefs.JavabaseBM.flushAllPages();
+			Page page = new Page();
+			for (int i = 1; status == OK && i < numPages; i++) {
+				PageId pid = new PageId(firstPid.pid + i);
+				db.read_page(pid, page);
+				if (Convert.getIntValue(0, page.getpage()) != pid.pid + 77777) {
+					status = FAIL;
+					System.err.print("*** The change to page " + pid.pid
+							+ " was lost\n");
+				}
+			}
+		} catch (Exception e) {
+			status = FAIL;
+			e.printStackTrace();
+		}
+
+		for (int i = 0; i < numPages; i++) {
+			try {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			} catch (Exception e) {
+				status = FAIL;
+				e.printStackTrace();
+			}
+		}
+
+		if (status == OK)
+			System.out.print("  Test 3 completed successfully.\n");
+
+		return status;
+	}
+
+	public static void main(String argv[]) {
+
+		BMDriverSingleFlightTest bmt = new BMDriverSingleFlightTest();
+
+		boolean dbstatus;
+
+		dbstatus = bmt.runTests();
+
+		if (dbstatus != true) {
+			System.out
+					.println("Error encountered during buffer manager tests:\n");
+			System.out.flush();
+			Runtime.getRuntime().exit(1);
+		}
+
+		System.out.println("Done. Exiting...");
+		Runtime.getRuntime().exit(0);
+	}
+}
@@ -0,0 +1,160 @@
+package tests;
+
+import global.GlobalConst;
+import global.PageId;
+import global.SystemDefs;
+
+import bufmgr.BufMgr;
+
+import diskmgr.Page;
+
+/**
+ * Runs reference strings through a small buffer pool to check which pages a
+ * replacer evicts. Pages are named A, B, ... in the strings; they are
+ * allocated and written out before each run, so every first reference to a
+ * page reads it in from disk. The drivers using this must leave room on disk
+ * for NUM_PAGES pages besides their own.
+ */
+class ReferenceStrings implements GlobalConst {
+
+	/** Pages named A, B, ... in the reference strings. */
+	static final int NUM_PAGES = 12;
+
+	private ReferenceStrings() {
+	}
+
+	private static PageId page(PageId firstPid, char name) {
+		return new PageId(firstPid.pid + name - 'A');
+	}
+
+	/** @return whether a page is in the buffer pool. */
+	static boolean resident(PageId pid) {
+		return ((BufMgr) SystemDefs.JavabaseBM).tryOptimisticRead(pid,
+				new Page()) != 0;
+	}
+
+	/**
+	 * Pins and unpins the pages of a reference string, one at a time, in a
+	 * small buffer pool, and checks which of them are left in it.
+	 *
+	 * @param replacer
+	 *            the replacer class to run the string under.
+	 * @param refs
+	 *            the reference string.
+	 * @param numFrames
+	 *            the number of frames in the pool.
+	 * @param kept
+	 *            the pages that must be in the pool at the end; the others
+	 *            must have been evicted.
+	 * @return whether the pages left were the ones expected.
+	 */
+	static boolean keeps(String replacer, String refs, int numFrames,
+			String kept) {
+		System.out.print("  - " + numFrames + " frames: " + refs + " keeps "
+				+ kept + "\n");
+		return run(replacer, refs, numFrames, kept, -1);
+	}
+
+	/**
+	 * Like keeps(String, String, int, String), also counting the pins that
+	 * find their page in the pool.
+	 *
+	 * @param hits
+	 *            the number of pins that must find their page in the pool.
+	 * @return whether the hits and the pages left were the ones expected.
+	 */
+	static boolean keeps(String replacer, String refs, int numFrames,
+			String kept, int hits) {
+		System.out.print("  - " + numFrames + " frames: " + refs + " hits "
+				+ hits + " times and keeps " + kept + "\n");
+		return run(replacer, refs, numFrames, kept, hits);
+	}
+
+	/**
+	 * Runs a reference string in a pool with one frame fewer than the string
+	 * has pages, and checks that the page the replacer should pick is the
+	 * one that went.
+	 *
+	 * @param refs
+	 *            the reference string; the first reference to its last page
+	 *            misses in a full pool.
+	 * @param victim
+	 *            the page that must have been evicted.
+	 * @return whether the victim was the one expected.
+	 */
+	static boolean evicts(String replacer, String refs, char victim) {
+		System.out.print("  - " + refs + " evicts " + victim + "\n");
+		String kept = "";
+		for (int i = 0; i < refs.length(); i++) {
+			char name = refs.charAt(i);
+			if (kept.indexOf(name) < 0) {
+				kept += name;
+			}
+		}
+		int numFrames = kept.length() - 1;
+		return run(replacer, refs, numFrames, kept.replace(
+				String.valueOf(victim), ""), -1);
+	}
+
+	/**
+	 * Runs a reference string and checks the pages left, and the hits unless
+	 * they are negative.
+	 */
+	private static boolean run(String replacer, String refs, int numFrames,
+			String kept, int hits) {
+		boolean status = true;
+		PageId firstPid;
+
+		try {
+			Page pg = new Page();
+			firstPid = SystemDefs.JavabaseBM.newPage(pg, NUM_PAGES);
+			SystemDefs.JavabaseBM.unpinPage(firstPid, false);
+			SystemDefs.JavabaseBM.flushAllPages();
+		} catch (Exception e) {
+			System.err.print("*** Could not allocate " + NUM_PAGES + " pages\n");
+			e.printStackTrace();
+			return false;
+		}
+
+		try {
+			SystemDefs.initBufMgr(new BufMgr(numFrames, replacer));
+			Page pg = new Page();
+			int numHits = 0;
+			for (int i = 0; i < refs.length(); i++) {
+				PageId pid = page(firstPid, refs.charAt(i));
+				if (resident(pid)) {
+					numHits++;
+				}
+				SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+				SystemDefs.JavabaseBM.unpinPage(pid, false);
+			}
+			if (hits >= 0 && numHits != hits) {
+				status = false;
+				System.err.print("*** " + numHits + " pins hit, not " + hits
+						+ "\n");
+			}
+			for (char name = 'A'; name < 'A' + NUM_PAGES; name++) {
+				boolean expected = kept.indexOf(name) >= 0;
+				if (resident(page(firstPid, name)) != expected) {
+					status = false;
+					System.err.print("*** Page " + name
+							+ (expected ? " was" : " was not") + " evicted\n");
+				}
+			}
+		} catch (Exception e) {
+			status = false;
+			e.printStackTrace();
+		}
+
+		try {
+			SystemDefs.initBufMgr(new BufMgr(NUMBUF, replacer));
+			for (int i = 0; i < NUM_PAGES; i++) {
+				SystemDefs.JavabaseBM.freePage(new PageId(firstPid.pid + i));
+			}
+		} catch (Exception e) {
+			status = false;
+			e.printStackTrace();
+		}
+		return status;
+	}
+}